@@ -0,0 +1,212 @@
+package cli;
+
+import component.GlyphMetrics;
+import component.HistoryManager;
+import component.IOManager;
+import component.ParagraphLayout;
+import component.RenderEngine;
+import component.TextBuffer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  AllocBudget: headless check of the bytes allocated per operation on the typing path, so allocation regressions
+ *  are caught before they show up as collection pauses while typing.
+ *    - each scenario replays an edit script (see BatchEdit) against TextBuffer and HistoryManager, the layout
+ *      scenario also breaks the edited paragraph into lines again after every keystroke with
+ *      ParagraphLayout.breakLines, the line breaker RenderEngine and Relayout use.
+ *    - a scenario runs WARMUP times first so class loading and compilation are not counted, then the bytes this
+ *      thread allocates during one more run (ThreadMXBean.getThreadAllocatedBytes) are divided by its operations.
+ *    - budgets include the cost of reading the script, so they are only compared with runs of this same tool.
+ *  the layout scenario uses a fixed glyph width (measuring glyphs needs a JavaFX toolkit) and stops at line breaks:
+ *  mounting Text nodes for the window is not covered.
+ *
+ *  Usage from Terminal: java -cp <classes> cli.AllocBudget [scenario...] (all scenarios by default).
+ *  budget of a scenario is overridden with -Dbudget.NAME=BYTES, -Doffheap=true measures off-heap content.
+ *  a RuntimeException is thrown after the report when some scenario exceeded its budget.
+ */
+public class AllocBudget {
+    private static final int WARMUP = 5;
+    private static final int CONTENT = 1 << 20;
+    private static final int KEYS = 2000;
+
+    // fixed glyph width, span and font size of the layout scenario.
+    private static final int GLYPH_WIDTH = 8;
+    private static final int SPAN = 640;
+    private static final int FONT_SIZE = 16;
+
+    private TextBuffer textBuffer;
+    private HistoryManager historyManager;
+    private BatchEdit batchEdit;
+    private ParagraphLayout paragraph;
+    private GlyphMetrics metrics;
+    private com.sun.management.ThreadMXBean threads;
+
+    /**
+     *  one measured edit sequence and the bytes per operation it may allocate.
+     */
+    private static class Scenario {
+        private String name;
+        private long budget;
+        private String setup;
+        private String script;
+        private boolean layout;
+
+        private Scenario(String name, long budget, String setup, String script, boolean layout) {
+            this.name = name;
+            this.budget = Long.getLong("budget." + name, budget);
+            this.setup = setup;
+            this.script = script;
+            this.layout = layout;
+        }
+    }
+
+    public AllocBudget(TextBuffer textBuffer) {
+        this.textBuffer = textBuffer;
+        this.historyManager = new HistoryManager(textBuffer);
+        this.batchEdit = new BatchEdit(textBuffer, historyManager);
+        this.paragraph = new ParagraphLayout();
+        this.metrics = new FixedMetrics();
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    // scenarios of the typing path, offsets point inside the middle of content.
+    private static List<Scenario> scenarios() {
+        String words = words(KEYS);
+        List<Scenario> list = new ArrayList<>();
+        list.add(new Scenario("type", 256, "", "insert 500000 " + words, false));
+        list.add(new Scenario("backspace", 256, "", "delete 500000 " + KEYS, false));
+        list.add(new Scenario("paste", 2048, "", "repeat 200 paste 500000 " + words.substring(0, 100), false));
+        list.add(new Scenario("undo", 512, "insert 500000 " + words.substring(0, 100), "undo 100", false));
+        list.add(new Scenario("redo", 512, "insert 500000 " + words.substring(0, 100) + "\nundo 100", "redo 100", false));
+        list.add(new Scenario("layout", 512, "", words, true));
+        return list;
+    }
+
+    // words separated by spaces with a newline now and then, escaped as BatchEdit expects.
+    private static String words(int length) {
+        String[] pool = {"alpha", "beta", "gamma", "delta", "epsilon", "zeta"};
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (sb.length() < length) {
+            sb.append(pool[i % pool.length]).append(i % 17 == 16 ? "\\n" : " ");
+            i += 1;
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    // run scenario WARMUP + 1 times, return bytes allocated per operation by the last run.
+    private double measure(Scenario scenario) throws IOException {
+        double perOp = 0;
+        for (int round = 0; round <= WARMUP; round += 1) {
+            replay(scenario.setup);
+            long ops = batchEdit.getOps();
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            if (scenario.layout) {
+                ops = typeAndLayout(scenario.script);
+            } else {
+                replay(scenario.script);
+                ops = batchEdit.getOps() - ops;
+            }
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            perOp = (double) allocated / Math.max(ops, 1);
+        }
+        return perOp;
+    }
+
+    private void replay(String script) throws IOException {
+        if (!script.isEmpty()) {
+            batchEdit.run(new BufferedReader(new StringReader(script)));
+        }
+    }
+
+    // type script text (only escape used is \n) at the middle of content, laying out the edited paragraph
+    // again after each keystroke, return number of keystrokes.
+    private long typeAndLayout(String text) {
+        long offset = textBuffer.getSize() / 2;
+        textBuffer.setCursor(offset);
+        long paragraphStart = offset;
+        int keys = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length() && text.charAt(i + 1) == 'n') {
+                c = '\n';
+                i += 1;
+            }
+            textBuffer.add(c);
+            keys += 1;
+            if (c == '\n') {
+                paragraphStart = textBuffer.getCursor();
+            }
+            layoutParagraph(paragraphStart);
+        }
+        return keys;
+    }
+
+    // break the paragraph starting at given offset the way RenderEngine does.
+    private void layoutParagraph(long start) {
+        long end = textBuffer.indexOf('\n', start);
+        int length = (int) ((end == -1 ? textBuffer.getSize() : end) - start);
+        textBuffer.setTraversalMan(start);
+        paragraph.breakLines(() -> {
+            char c = textBuffer.current();
+            textBuffer.advance();
+            return c;
+        }, length, metrics, FONT_SIZE, SPAN, RenderEngine.X_INIT);
+    }
+
+    /**
+     *  glyph metrics giving every character the same width, measuring real glyphs needs a JavaFX toolkit.
+     */
+    private static class FixedMetrics extends GlyphMetrics {
+        private FixedMetrics() {
+            super(null);
+        }
+
+        @Override
+        public int width(char c, int size) {
+            return GLYPH_WIDTH;
+        }
+    }
+
+
+    /**
+     *  headless entrance: load generated content, run scenarios and report bytes per operation.
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("allocbudget", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, words(CONTENT).replace("\\n", "\n").getBytes());
+        TextBuffer textBuffer = new TextBuffer(new IOManager(file.toString()), Boolean.getBoolean("offheap"));
+        AllocBudget allocBudget = new AllocBudget(textBuffer);
+
+        List<String> failed = new ArrayList<>();
+        System.out.println(String.format("%-10s %12s %12s", "scenario", "bytes/op", "budget"));
+        for (Scenario scenario : scenarios()) {
+            if (args.length > 0 && !List.of(args).contains(scenario.name)) {
+                continue;
+            }
+            double perOp = allocBudget.measure(scenario);
+            boolean over = perOp > scenario.budget;
+            System.out.println(String.format("%-10s %12.1f %12d%s", scenario.name, perOp, scenario.budget,
+                    over ? "  OVER BUDGET" : ""));
+            if (over) {
+                failed.add(scenario.name);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Allocation budget exceeded by " + String.join(", ", failed) + ".");
+        }
+    }
+}
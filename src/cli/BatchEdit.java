@@ -0,0 +1,284 @@
+package cli;
+
+import component.Collaborator;
+import component.HistoryManager;
+import component.IOManager;
+import component.TextBuffer;
+import entity.AddEvent;
+import entity.DeleteEvent;
+import entity.PasteEvent;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  BatchEdit: headless entry point applying an edit script to a file without any window.
+ *  only TextBuffer, HistoryManager and IOManager are used, none of which depends on JavaFX, so it runs on
+ *  machines without display when launched from class path (module-info requiring JavaFX is then ignored).
+ *
+ *  script format, one operation per line (blank lines and lines starting with '#' are skipped):
+ *    - insert OFFSET TEXT    type TEXT character by character at OFFSET (one undo record per character).
+ *    - paste OFFSET TEXT     insert TEXT at OFFSET as one paste (one undo record).
+ *    - delete OFFSET COUNT   press backspace COUNT times with cursor at OFFSET.
+ *    - undo [N] / redo [N]   roll back / recover N records (default 1).
+ *    - repeat N OPERATION    apply OPERATION N times.
+ *    - sleep MILLIS          pause, changes of collaboration peer are merged meanwhile.
+ *  OFFSET is a character offset or "end", TEXT supports escapes \n, \t, \s (space) and \\.
+ *
+ *  Usage from Terminal: java -cp <classes> cli.BatchEdit filename script (script "-" reads standard input).
+ *  with -Doffheap=true content is kept off the Java heap (raise -XX:MaxDirectMemorySize for huge files).
+ *  with -Dcollab=PORT or -Dcollab=HOST:PORT content is shared with a peer (see component.Collaborator) before the
+ *  script starts, and changes of the peer are merged for -Dcollab.linger milliseconds (default 2000) after it ends.
+ */
+public class BatchEdit {
+    private TextBuffer textBuffer;
+    private HistoryManager historyManager;
+    private long ops;
+
+    // tasks of collaboration session, run on this thread between operations (null when not sharing).
+    private BlockingQueue<Runnable> tasks;
+    private Collaborator collaborator;
+    private boolean started;
+
+    public BatchEdit(TextBuffer textBuffer, HistoryManager historyManager) {
+        this.textBuffer = textBuffer;
+        this.historyManager = historyManager;
+    }
+
+    // number of primitive operations (characters typed or deleted, pastes, undos, redos) applied so far.
+    public long getOps() {
+        return ops;
+    }
+
+    // apply every operation of given script.
+    public void run(BufferedReader script) throws IOException {
+        String line;
+        int lineNo = 0;
+        while ((line = script.readLine()) != null) {
+            lineNo += 1;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            runTasks(0);
+            try {
+                apply(line);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid operation at line " + lineNo + ": " + line, e);
+            }
+        }
+    }
+
+    // apply a single script line.
+    private void apply(String line) {
+        String[] parts = line.split(" ", 2);
+        String op = parts[0];
+        String args = parts.length > 1 ? parts[1] : "";
+
+        if (op.equals("repeat")) {
+            String[] rest = args.split(" ", 2);
+            int times = Integer.parseInt(rest[0]);
+            for (int i = 0; i < times; i += 1) {
+                apply(rest[1]);
+            }
+        } else if (op.equals("insert")) {
+            String[] rest = args.split(" ", 2);
+            insert(offset(rest[0]), unescape(rest.length > 1 ? rest[1] : ""));
+        } else if (op.equals("paste")) {
+            String[] rest = args.split(" ", 2);
+            paste(offset(rest[0]), unescape(rest.length > 1 ? rest[1] : ""));
+        } else if (op.equals("delete")) {
+            String[] rest = args.split(" ");
+            delete(offset(rest[0]), Integer.parseInt(rest[1]));
+        } else if (op.equals("sleep")) {
+            runTasks(Long.parseLong(args.trim()));
+        } else if (op.equals("undo")) {
+            int times = args.isEmpty() ? 1 : Integer.parseInt(args.trim());
+            for (int i = 0; i < times; i += 1) {
+                historyManager.undo();
+                ops += 1;
+            }
+        } else if (op.equals("redo")) {
+            int times = args.isEmpty() ? 1 : Integer.parseInt(args.trim());
+            for (int i = 0; i < times; i += 1) {
+                historyManager.redo();
+                ops += 1;
+            }
+        } else {
+            throw new RuntimeException("Unknown operation " + op + ".");
+        }
+    }
+
+    // same records as key typed events in editor window.
+    private void insert(long offset, String text) {
+        textBuffer.setCursor(offset);
+        for (int i = 0; i < text.length(); i += 1) {
+            textBuffer.add(text.charAt(i));
+            AddEvent e = new AddEvent();
+            e.setOffset(textBuffer.getCursor() - 1);
+            historyManager.put(e);
+            ops += 1;
+        }
+    }
+
+    // same record as clipboard paste in editor window.
+    private void paste(long offset, String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        // inserted at once like RenderEngine.doPaste, the cursor moves behind the text.
+        textBuffer.setCursor(offset);
+        textBuffer.insert(offset, text);
+        PasteEvent e = new PasteEvent();
+        e.setLength(text.length());
+        e.setEnd(textBuffer.getCursor());
+        historyManager.put(e);
+        ops += 1;
+    }
+
+    // same records as backspace key events in editor window.
+    private void delete(long offset, int count) {
+        textBuffer.setCursor(offset);
+        for (int i = 0; i < count; i += 1) {
+            int deleted = textBuffer.delete();
+            if (deleted == -1) {
+                return;
+            }
+            DeleteEvent e = new DeleteEvent();
+            e.setElement((char) deleted);
+            e.setOffset(textBuffer.getCursor());
+            historyManager.put(e);
+            ops += 1;
+        }
+    }
+
+    /**
+     *  group methods for sharing content: the thread running the script is the editing thread of the session.
+     */
+    // connect to peer and wait until content is shared.
+    public void share(String address) {
+        tasks = new LinkedBlockingQueue<>();
+        collaborator = new Collaborator(textBuffer, tasks::add, new Collaborator.Listener() {
+            @Override
+            public void onStart() {
+                started = true;
+            }
+
+            @Override
+            public void onRemoteEdit() {
+                historyManager.clear();
+            }
+
+            @Override
+            public void onDisconnect(String reason) {
+                System.out.println("Collaboration ended: " + reason);
+                started = true;
+            }
+        });
+        collaborator.start(address);
+        while (!started) {
+            runTasks(100);
+        }
+    }
+
+    // merge remaining changes of peer for given time, then close session.
+    public void unshare(long linger) {
+        if (collaborator != null) {
+            runTasks(linger);
+            collaborator.close();
+        }
+    }
+
+    // run session tasks for given time (0: only those already waiting).
+    private void runTasks(long millis) {
+        if (tasks == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                Runnable task = remaining > 0 ? tasks.poll(remaining, TimeUnit.MILLISECONDS) : tasks.poll();
+                if (task == null) {
+                    return;
+                }
+                task.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long offset(String s) {
+        return s.equals("end") ? textBuffer.getSize() : Long.parseLong(s);
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            i += 1;
+            char e = s.charAt(i);
+            if (e == 'n') {
+                sb.append('\n');
+            } else if (e == 't') {
+                sb.append('\t');
+            } else if (e == 's') {
+                sb.append(' ');
+            } else {
+                sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     *  headless entrance: load file, apply script, save file and report throughput.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new RuntimeException("Usage: java cli.BatchEdit filename script (\"-\" for standard input).");
+        }
+
+        long loadStart = System.nanoTime();
+        TextBuffer textBuffer = new TextBuffer(new IOManager(args[0]), Boolean.getBoolean("offheap"));
+        HistoryManager historyManager = new HistoryManager(textBuffer);
+        long loaded = System.nanoTime();
+        long loadedSize = textBuffer.getSize();
+
+        BatchEdit batchEdit = new BatchEdit(textBuffer, historyManager);
+        String collab = System.getProperty("collab");
+        if (collab != null) {
+            batchEdit.share(collab);
+        }
+        try (BufferedReader script = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(args[1]))) {
+            batchEdit.run(script);
+        }
+        batchEdit.unshare(Long.getLong("collab.linger", 2000));
+        long edited = System.nanoTime();
+
+        textBuffer.savefile();
+        long saved = System.nanoTime();
+
+        double editSeconds = Math.max(edited - loaded, 1) / 1e9;
+        System.out.println("Loaded " + loadedSize + " characters in " + millis(loaded - loadStart) + " ms.");
+        System.out.println("Applied " + batchEdit.getOps() + " operations in " + millis(edited - loaded) + " ms ("
+                + Math.round(batchEdit.getOps() / editSeconds) + " ops/sec).");
+        System.out.println("Saved " + textBuffer.getSize() + " characters in " + millis(saved - edited) + " ms.");
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+}
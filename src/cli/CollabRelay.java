@@ -0,0 +1,68 @@
+package cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ *  CollabRelay: local relay between two collaborating editors (see component.Collaborator).
+ *  the first editor connecting becomes host and the second one guest, then bytes are forwarded unchanged
+ *  in both directions, so editors never need to accept connections themselves.
+ *
+ *  Usage from Terminal: java -cp <classes> cli.CollabRelay port
+ *  editors then connect with -Dcollab=localhost:port.
+ */
+public class CollabRelay {
+    private static final int BUFFER = 1 << 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new RuntimeException("Usage: java cli.CollabRelay port.");
+        }
+        try (ServerSocket server = new ServerSocket(Integer.parseInt(args[0]))) {
+            System.out.println("Relay waiting for two editors on port " + args[0] + "...");
+            Socket host = server.accept();
+            host.getOutputStream().write(0);
+            System.out.println("Host connected.");
+            Socket guest = server.accept();
+            guest.getOutputStream().write(1);
+            System.out.println("Guest connected.");
+            host.setTcpNoDelay(true);
+            guest.setTcpNoDelay(true);
+
+            Thread back = new Thread(() -> forward(guest, host), "RelayBack");
+            back.start();
+            forward(host, guest);
+            try {
+                back.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("Relay closed.");
+    }
+
+    // copy bytes from one editor to the other until either side closes, then close both.
+    private static void forward(Socket from, Socket to) {
+        byte[] buf = new byte[BUFFER];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection closed by either side.
+        }
+        try {
+            from.close();
+            to.close();
+        } catch (IOException e) {
+            // closing anyway.
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package component;
+
+/**
+ *  Chunk: a piece of content kept in one fixed-capacity storage area, element of the chunk list of TextBuffer.
+ *    - characters are stored one byte each as long as all of them are Latin-1 (like JDK compact strings).
+ *    - the chunk switches to two bytes per character the first time a character beyond Latin-1 is put in,
+ *      other chunks of the same content stay compact.
+ *    - a UTF-16 chunk goes back to bytes when it is split and one half holds Latin-1 characters only.
+ *  subclasses decide where characters live: HeapChunk (Java arrays) or OffHeapChunk (slots of direct buffers).
+ *  line and word counts of the chunk are kept up to date by every change, its bracket summary is recomputed when
+ *  asked for after a change touched a bracket, and chunks are also nodes of the ChunkTree indexing content, whose
+ *  augmented values are kept in the tree fields below.
+ *  a chunk pinned by a Snapshot is immutable: TextBuffer edits a copy instead, and storage of a chunk removed from
+ *  content is given back only once no snapshot pins it any more.
+ *  a chunk filled from the file and never changed refers to the bytes it was decoded from, any change drops them.
+ */
+abstract class Chunk {
+    protected int length;
+    protected boolean latin = true;
+
+    Chunk next, pre;
+
+    // newlines and word starts (non-whitespace character at index 0 or following whitespace) in this chunk.
+    protected int lines;
+    protected int words;
+
+    // bracket summary (openers count +1, closers -1): depth change over the chunk, lowest depth reached reading it
+    // forward from its start and highest depth reached reading it backward from its end, stale after a change.
+    private int depth, lowest, highest;
+    private boolean bracketsStale = true;
+
+    // ChunkTree fields: links, heap priority and statistics of the subtree rooted at this chunk.
+    Chunk left, right, parent;
+    int priority;
+    long subChars, subLines, subWords;
+    boolean subFirstSolid, subLastSolid;
+    long subDepth, subLowest, subHighest;
+
+    // bytes [sourceStart, sourceEnd) of source encode exactly the characters of this chunk, source is null if not.
+    Source source;
+    long sourceStart, sourceEnd;
+
+    // number of snapshots referring to this chunk, changed under lock, read without lock by editing thread.
+    private volatile int pins;
+    private boolean detached;
+
+    // maximum number of characters.
+    abstract int capacity();
+
+    abstract char charAt(int i);
+
+    // store character at index, chunk must be wide enough for it.
+    protected abstract void put(int i, char c);
+
+    // move count characters from index from to index to, ranges may overlap.
+    protected abstract void move(int from, int to, int count);
+
+    // switch storage between one and two bytes per character, keeping the first length characters.
+    protected abstract void recode(boolean latin);
+
+    // give storage back, chunk is not used afterwards.
+    protected void release() {
+    }
+
+    /**
+     *  group methods sharing chunks with snapshots.
+     */
+    // whether some snapshot refers to this chunk (only the editing thread adds references).
+    boolean isPinned() {
+        return pins != 0;
+    }
+
+    synchronized void pin() {
+        pins += 1;
+    }
+
+    // called by snapshot when closed, possibly from another thread.
+    synchronized void unpin() {
+        pins -= 1;
+        if (pins == 0 && detached) {
+            release();
+        }
+    }
+
+    // called when chunk leaves content, storage is released now or by the last snapshot referring to it.
+    synchronized void detach() {
+        if (pins == 0) {
+            release();
+        } else {
+            detached = true;
+        }
+    }
+
+    int length() {
+        return length;
+    }
+
+    boolean isFull() {
+        return length == capacity();
+    }
+
+    boolean isLatin1() {
+        return latin;
+    }
+
+    int lineCount() {
+        return lines;
+    }
+
+    int wordCount() {
+        return words;
+    }
+
+    // whether character at index is not whitespace.
+    boolean isSolid(int i) {
+        return !Character.isWhitespace(charAt(i));
+    }
+
+    // whether a word starts at index, judged inside this chunk only.
+    boolean isWordStart(int i) {
+        return isSolid(i) && (i == 0 || !isSolid(i - 1));
+    }
+
+    // newlines and word starts in the first count characters, as {lines, words}.
+    void countPrefix(int count, long[] result) {
+        long lineCount = 0, wordCount = 0;
+        for (int i = 0; i < count; i += 1) {
+            if (charAt(i) == '\n') {
+                lineCount += 1;
+            }
+            if (isWordStart(i)) {
+                wordCount += 1;
+            }
+        }
+        result[0] = lineCount;
+        result[1] = wordCount;
+    }
+
+    /**
+     *  group methods summarizing brackets for ChunkTree.
+     */
+    // +1 for an opening bracket, -1 for a closing one, 0 for other characters.
+    static int bracket(char c) {
+        switch (c) {
+            case '(': case '[': case '{':
+                return 1;
+            case ')': case ']': case '}':
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    // bracket of the same kind facing the other way, c itself if it is no bracket.
+    static char partner(char c) {
+        switch (c) {
+            case '(': return ')';
+            case ')': return '(';
+            case '[': return ']';
+            case ']': return '[';
+            case '{': return '}';
+            case '}': return '{';
+            default: return c;
+        }
+    }
+
+    int bracketDepth() {
+        summarizeBrackets();
+        return depth;
+    }
+
+    int bracketLowest() {
+        summarizeBrackets();
+        return lowest;
+    }
+
+    int bracketHighest() {
+        summarizeBrackets();
+        return highest;
+    }
+
+    private void summarizeBrackets() {
+        if (!bracketsStale) {
+            return;
+        }
+        depth = 0;
+        lowest = 0;
+        for (int i = 0; i < length; i += 1) {
+            depth += bracket(charAt(i));
+            lowest = Math.min(lowest, depth);
+        }
+        // backward reading ends at depth 0 of the start, so its peak is the depth climbed since the lowest point.
+        highest = depth - lowest;
+        bracketsStale = false;
+    }
+
+    // depth change over characters in [from, to).
+    int bracketDepth(int from, int to) {
+        int sum = 0;
+        for (int i = from; i < to; i += 1) {
+            sum += bracket(charAt(i));
+        }
+        return sum;
+    }
+
+    // first index at or after from at which depth counted from from reaches target (negative), -1 if none.
+    int bracketForward(int from, int target) {
+        int sum = 0;
+        for (int i = from; i < length; i += 1) {
+            sum += bracket(charAt(i));
+            if (sum == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // last index before to at which depth counted backward from to reaches target (positive), -1 if none.
+    int bracketBackward(int to, int target) {
+        int sum = 0;
+        for (int i = to - 1; i >= 0; i -= 1) {
+            sum += bracket(charAt(i));
+            if (sum == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // index of the first occurrence of c at or after from, -1 if absent.
+    int indexOf(char c, int from) {
+        if (latin && c > 0xFF) {
+            return -1;
+        }
+        for (int i = from; i < length; i += 1) {
+            if (charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // insert character at given index, chunk must not be full.
+    void insert(int i, char c) {
+        source = null;
+        if (latin && c > 0xFF) {
+            recode(false);
+            latin = false;
+        }
+        int before = i < length && isWordStart(i) ? 1 : 0;
+        move(i, i + 1, length - i);
+        put(i, c);
+        length += 1;
+        int after = (isWordStart(i) ? 1 : 0) + (i + 1 < length && isWordStart(i + 1) ? 1 : 0);
+        words += after - before;
+        if (c == '\n') {
+            lines += 1;
+        }
+        if (bracket(c) != 0) {
+            bracketsStale = true;
+        }
+    }
+
+    // append character, chunk must not be full.
+    void append(char c) {
+        insert(length, c);
+    }
+
+    // append character decoded unchanged from bytes [start, end) of given source (null if it was not),
+    // chunk keeps referring to its bytes as long as it only holds consecutive ones.
+    void appendFrom(char c, Source from, long start, long end) {
+        boolean follows = length == 0 || (source == from && sourceEnd == start);
+        long firstStart = length == 0 ? start : sourceStart;
+        append(c);
+        if (from != null && follows) {
+            source = from;
+            sourceStart = firstStart;
+            sourceEnd = end;
+        }
+    }
+
+    // remove and return character at given index.
+    char remove(int i) {
+        source = null;
+        char c = charAt(i);
+        int before = (isWordStart(i) ? 1 : 0) + (i + 1 < length && isWordStart(i + 1) ? 1 : 0);
+        move(i + 1, i, length - i - 1);
+        length -= 1;
+        int after = i < length && isWordStart(i) ? 1 : 0;
+        words += after - before;
+        if (c == '\n') {
+            lines -= 1;
+        }
+        if (bracket(c) != 0) {
+            bracketsStale = true;
+        }
+        return c;
+    }
+
+    // remove count characters starting at given index.
+    // word starts before the range keep their predecessor, so only the character moving to index is judged again.
+    void remove(int from, int count) {
+        source = null;
+        int before = 0;
+        for (int j = from; j <= from + count && j < length; j += 1) {
+            if (j < from + count && charAt(j) == '\n') {
+                lines -= 1;
+            }
+            if (isWordStart(j)) {
+                before += 1;
+            }
+        }
+        move(from + count, from, length - from - count);
+        length -= count;
+        int after = from < length && isWordStart(from) ? 1 : 0;
+        words += after - before;
+        bracketsStale = true;
+    }
+
+    // drop characters from given index to the end.
+    void truncate(int i) {
+        source = null;
+        for (int j = i; j < length; j += 1) {
+            if (charAt(j) == '\n') {
+                lines -= 1;
+            }
+            if (isWordStart(j)) {
+                words -= 1;
+            }
+        }
+        length = i;
+        bracketsStale = true;
+    }
+
+    // move characters from given index on to the end of other chunk, which must have room for them.
+    void moveTailTo(int from, Chunk other) {
+        copyTo(from, other);
+        truncate(from);
+        narrow();
+    }
+
+    // append characters from given index on to the end of other chunk, this chunk is left unchanged.
+    void copyTo(int from, Chunk other) {
+        for (int i = from; i < length; i += 1) {
+            other.append(charAt(i));
+        }
+    }
+
+    // append characters in [from, to) to string builder.
+    void appendTo(StringBuilder sb, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            sb.append(charAt(i));
+        }
+    }
+
+    // switch back to bytes if every character is Latin-1.
+    private void narrow() {
+        if (latin) {
+            return;
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (charAt(i) > 0xFF) {
+                return;
+            }
+        }
+        recode(true);
+        latin = true;
+    }
+}
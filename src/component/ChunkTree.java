@@ -0,0 +1,414 @@
+package component;
+
+import java.util.Random;
+
+/**
+ *  ChunkTree: balanced index over the chunk list of TextBuffer, a treap ordered by content position.
+ *    - each chunk is a tree node, heap-ordered by a random priority, so depth stays O(log n) on average.
+ *    - every node keeps statistics of its subtree: characters, newlines, word starts and whether the subtree
+ *      content begins / ends with a non-whitespace character, so two parts can be joined without rescanning:
+ *      a word running across the join is counted once.
+ *    - every node also keeps the bracket depth change over its subtree with the lowest depth reached reading it
+ *      forward and the highest reading it backward, so the bracket matching another one is found by skipping
+ *      whole subtrees that cannot close (or open) it and scanning a single chunk.
+ *    - locating an offset and counting statistics before an offset walk one root-to-leaf path,
+ *      a chunk change is propagated by recomputing its ancestors.
+ */
+class ChunkTree {
+    private Chunk root;
+    private Random random;
+    private long foundStart;
+
+    ChunkTree() {
+        random = new Random();
+    }
+
+
+    /**
+     *  group methods keeping tree in sync with the chunk list.
+     */
+    // insert chunk right after pre (as first chunk if pre is null).
+    void insertAfter(Chunk pre, Chunk chunk) {
+        chunk.left = null;
+        chunk.right = null;
+        chunk.priority = random.nextInt();
+        pull(chunk);
+        if (root == null) {
+            chunk.parent = null;
+            root = chunk;
+            return;
+        }
+        Chunk node;
+        if (pre == null) {
+            node = leftmost(root);
+            node.left = chunk;
+        } else if (pre.right == null) {
+            node = pre;
+            node.right = chunk;
+        } else {
+            node = leftmost(pre.right);
+            node.left = chunk;
+        }
+        chunk.parent = node;
+        update(node);
+        while (chunk.parent != null && chunk.priority > chunk.parent.priority) {
+            rotateUp(chunk);
+        }
+    }
+
+    // remove chunk from tree.
+    void remove(Chunk chunk) {
+        while (chunk.left != null || chunk.right != null) {
+            if (chunk.right == null || (chunk.left != null && chunk.left.priority > chunk.right.priority)) {
+                rotateUp(chunk.left);
+            } else {
+                rotateUp(chunk.right);
+            }
+        }
+        Chunk p = chunk.parent;
+        if (p == null) {
+            root = null;
+        } else {
+            if (p.left == chunk) {
+                p.left = null;
+            } else {
+                p.right = null;
+            }
+            update(p);
+        }
+        chunk.parent = null;
+    }
+
+    // put copy in the place of chunk, both having the same content.
+    void replace(Chunk chunk, Chunk copy) {
+        copy.left = chunk.left;
+        copy.right = chunk.right;
+        copy.parent = chunk.parent;
+        copy.priority = chunk.priority;
+        if (copy.left != null) {
+            copy.left.parent = copy;
+        }
+        if (copy.right != null) {
+            copy.right.parent = copy;
+        }
+        if (copy.parent == null) {
+            root = copy;
+        } else if (copy.parent.left == chunk) {
+            copy.parent.left = copy;
+        } else {
+            copy.parent.right = copy;
+        }
+        pull(copy);
+        chunk.left = null;
+        chunk.right = null;
+        chunk.parent = null;
+    }
+
+    // recompute statistics of chunk and its ancestors after its content changed.
+    void update(Chunk chunk) {
+        for (Chunk node = chunk; node != null; node = node.parent) {
+            pull(node);
+        }
+    }
+
+
+    /**
+     *  group methods answering queries.
+     */
+    // chunk holding given offset (last chunk for offset == size), its start is kept for getFoundStart.
+    Chunk find(long offset) {
+        Chunk node = root;
+        long start = 0;
+        while (true) {
+            long leftChars = node.left == null ? 0 : node.left.subChars;
+            if (offset < start + leftChars) {
+                node = node.left;
+            } else if (offset < start + leftChars + node.length() || node.right == null) {
+                foundStart = start + leftChars;
+                return node;
+            } else {
+                start += leftChars + node.length();
+                node = node.right;
+            }
+        }
+    }
+
+    // start offset of chunk returned by last find.
+    long getFoundStart() {
+        return foundStart;
+    }
+
+    long chars() {
+        return root == null ? 0 : root.subChars;
+    }
+
+    long lines() {
+        return root == null ? 0 : root.subLines;
+    }
+
+    long words() {
+        return root == null ? 0 : root.subWords;
+    }
+
+    // newlines and word starts before given offset, as {lines, words}.
+    // a word start is a non-whitespace character at offset 0 or following whitespace.
+    void countBefore(long offset, long[] result) {
+        long lineCount = 0, wordCount = 0;
+        boolean lastSolid = false;
+        long start = 0;
+        Chunk node = root;
+        while (node != null) {
+            Chunk left = node.left;
+            long leftChars = left == null ? 0 : left.subChars;
+            if (offset < start + leftChars) {
+                node = left;
+                continue;
+            }
+            if (leftChars > 0) {
+                lineCount += left.subLines;
+                wordCount += left.subWords - (lastSolid && left.subFirstSolid ? 1 : 0);
+                lastSolid = left.subLastSolid;
+            }
+            start += leftChars;
+            int count = (int) Math.min(node.length(), offset - start);
+            if (count < node.length() || node.right == null) {
+                if (count > 0) {
+                    node.countPrefix(count, result);
+                    lineCount += result[0];
+                    wordCount += result[1] - (lastSolid && node.isSolid(0) ? 1 : 0);
+                }
+                break;
+            }
+            if (count > 0) {
+                lineCount += node.lineCount();
+                wordCount += node.wordCount() - (lastSolid && node.isSolid(0) ? 1 : 0);
+                lastSolid = node.isSolid(count - 1);
+            }
+            start += count;
+            node = node.right;
+        }
+        result[0] = lineCount;
+        result[1] = wordCount;
+    }
+
+    // offset of the first character after given one at which bracket depth counted from right after it
+    // reaches -1 (the closer of an opener at offset), -1 if none.
+    long closingAfter(long offset) {
+        Chunk node = find(offset);
+        long end = foundStart + node.length();
+        int from = (int) (offset - foundStart) + 1;
+        int i = node.bracketForward(from, -1);
+        if (i != -1) {
+            return foundStart + i;
+        }
+        long need = -1 - node.bracketDepth(from, node.length());
+        Chunk right = node.right;
+        if (right != null) {
+            if (right.subLowest <= need) {
+                return descendForward(right, end, need);
+            }
+            need -= right.subDepth;
+            end += right.subChars;
+        }
+        for (Chunk child = node, p = node.parent; p != null; child = p, p = p.parent) {
+            if (p.left != child) {
+                continue;
+            }
+            if (p.bracketLowest() <= need) {
+                return end + p.bracketForward(0, (int) need);
+            }
+            need -= p.bracketDepth();
+            end += p.length();
+            right = p.right;
+            if (right != null) {
+                if (right.subLowest <= need) {
+                    return descendForward(right, end, need);
+                }
+                need -= right.subDepth;
+                end += right.subChars;
+            }
+        }
+        return -1;
+    }
+
+    // offset of the last character before given one at which bracket depth counted backward from right before it
+    // reaches 1 (the opener of a closer at offset), -1 if none.
+    long openingBefore(long offset) {
+        Chunk node = find(offset);
+        long begin = foundStart;
+        int to = (int) (offset - foundStart);
+        int i = node.bracketBackward(to, 1);
+        if (i != -1) {
+            return foundStart + i;
+        }
+        long need = 1 - node.bracketDepth(0, to);
+        Chunk left = node.left;
+        if (left != null) {
+            if (left.subHighest >= need) {
+                return descendBackward(left, begin, need);
+            }
+            need -= left.subDepth;
+            begin -= left.subChars;
+        }
+        for (Chunk child = node, p = node.parent; p != null; child = p, p = p.parent) {
+            if (p.right != child) {
+                continue;
+            }
+            if (p.bracketHighest() >= need) {
+                return begin - p.length() + p.bracketBackward(p.length(), (int) need);
+            }
+            need -= p.bracketDepth();
+            begin -= p.length();
+            left = p.left;
+            if (left != null) {
+                if (left.subHighest >= need) {
+                    return descendBackward(left, begin, need);
+                }
+                need -= left.subDepth;
+                begin -= left.subChars;
+            }
+        }
+        return -1;
+    }
+
+    // offset where depth read forward from start of subtree (at offset start) first reaches need.
+    private long descendForward(Chunk node, long start, long need) {
+        while (true) {
+            Chunk left = node.left;
+            if (left != null) {
+                if (left.subLowest <= need) {
+                    node = left;
+                    continue;
+                }
+                need -= left.subDepth;
+                start += left.subChars;
+            }
+            if (node.bracketLowest() <= need) {
+                return start + node.bracketForward(0, (int) need);
+            }
+            need -= node.bracketDepth();
+            start += node.length();
+            node = node.right;
+        }
+    }
+
+    // offset where depth read backward from end of subtree (at offset end) first reaches need.
+    private long descendBackward(Chunk node, long end, long need) {
+        while (true) {
+            Chunk right = node.right;
+            if (right != null) {
+                if (right.subHighest >= need) {
+                    node = right;
+                    continue;
+                }
+                need -= right.subDepth;
+                end -= right.subChars;
+            }
+            if (node.bracketHighest() >= need) {
+                return end - node.length() + node.bracketBackward(node.length(), (int) need);
+            }
+            need -= node.bracketDepth();
+            end -= node.length();
+            node = node.left;
+        }
+    }
+
+
+    /**
+     *  group methods maintaining tree shape and statistics.
+     */
+    private Chunk leftmost(Chunk node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    // rotate node above its parent, keeping content order.
+    private void rotateUp(Chunk node) {
+        Chunk p = node.parent;
+        Chunk g = p.parent;
+        if (p.left == node) {
+            p.left = node.right;
+            if (node.right != null) {
+                node.right.parent = p;
+            }
+            node.right = p;
+        } else {
+            p.right = node.left;
+            if (node.left != null) {
+                node.left.parent = p;
+            }
+            node.left = p;
+        }
+        p.parent = node;
+        node.parent = g;
+        if (g == null) {
+            root = node;
+        } else if (g.left == p) {
+            g.left = node;
+        } else {
+            g.right = node;
+        }
+        pull(p);
+        pull(node);
+    }
+
+    // recompute statistics of node from its children and its own content.
+    private void pull(Chunk node) {
+        long chars = 0, lineCount = 0, wordCount = 0;
+        boolean firstSolid = false, lastSolid = false;
+        Chunk left = node.left;
+        if (left != null && left.subChars > 0) {
+            chars = left.subChars;
+            lineCount = left.subLines;
+            wordCount = left.subWords;
+            firstSolid = left.subFirstSolid;
+            lastSolid = left.subLastSolid;
+        }
+        if (node.length() > 0) {
+            boolean solid = node.isSolid(0);
+            wordCount += node.wordCount() - (chars > 0 && lastSolid && solid ? 1 : 0);
+            if (chars == 0) {
+                firstSolid = solid;
+            }
+            chars += node.length();
+            lineCount += node.lineCount();
+            lastSolid = node.isSolid(node.length() - 1);
+        }
+        Chunk right = node.right;
+        if (right != null && right.subChars > 0) {
+            wordCount += right.subWords - (chars > 0 && lastSolid && right.subFirstSolid ? 1 : 0);
+            if (chars == 0) {
+                firstSolid = right.subFirstSolid;
+            }
+            chars += right.subChars;
+            lineCount += right.subLines;
+            lastSolid = right.subLastSolid;
+        }
+        node.subChars = chars;
+        node.subLines = lineCount;
+        node.subWords = wordCount;
+        node.subFirstSolid = firstSolid;
+        node.subLastSolid = lastSolid;
+
+        // brackets: left part, then own chunk, then right part.
+        long depth = 0, lowest = 0, highest = 0;
+        if (left != null) {
+            depth = left.subDepth;
+            lowest = left.subLowest;
+            highest = left.subHighest;
+        }
+        lowest = Math.min(lowest, depth + node.bracketLowest());
+        highest = Math.max(node.bracketHighest(), node.bracketDepth() + highest);
+        depth += node.bracketDepth();
+        if (right != null) {
+            lowest = Math.min(lowest, depth + right.subLowest);
+            highest = Math.max(right.subHighest, right.subDepth + highest);
+            depth += right.subDepth;
+        }
+        node.subDepth = depth;
+        node.subLowest = lowest;
+        node.subHighest = highest;
+    }
+}
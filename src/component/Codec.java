@@ -0,0 +1,101 @@
+package component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *  Codec: a compression format the opened file may be stored in, content is decompressed while it is read and
+ *  compressed again while it is saved, so archived files are edited without unpacking them on disk.
+ *    - an existing file is recognised by its first bytes, a new or empty one by its file name.
+ *    - gzip is built in, other formats (e.g. zstd) are plugged in as service providers: implementations listed in
+ *      META-INF/services/component.Codec on the class path are found by ServiceLoader.
+ */
+public interface Codec {
+    // number of bytes compressed or decompressed at a time.
+    int BLOCK = 1 << 16;
+    // number of leading bytes given to matches.
+    int HEAD = 16;
+
+    // file name extension of this format, e.g. ".gz".
+    String extension();
+
+    // whether content starting with given bytes is in this format.
+    boolean matches(byte[] head, int length);
+
+    InputStream decompress(InputStream in) throws IOException;
+
+    OutputStream compress(OutputStream out) throws IOException;
+
+
+    /**
+     *  group methods to find the codec of a file.
+     */
+    // codec of given file, null if it is stored plain.
+    static Codec of(Path path) throws IOException {
+        byte[] head = new byte[HEAD];
+        int length = 0;
+        if (Files.isRegularFile(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(head);
+                int n;
+                while (length < HEAD && (n = channel.read(buffer)) != -1) {
+                    length += n;
+                }
+            }
+        }
+        String name = path.getFileName().toString();
+        for (Codec codec : available()) {
+            if (length > 0 ? codec.matches(head, length) : name.endsWith(codec.extension())) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    // built-in codecs followed by those provided on the class path.
+    static List<Codec> available() {
+        List<Codec> codecs = new ArrayList<>();
+        codecs.add(new Gzip());
+        for (Codec codec : ServiceLoader.load(Codec.class)) {
+            codecs.add(codec);
+        }
+        return codecs;
+    }
+
+
+    /**
+     *  gzip format (RFC 1952) supported by java.util.zip, concatenated members are read as one stream.
+     */
+    class Gzip implements Codec {
+        @Override
+        public String extension() {
+            return ".gz";
+        }
+
+        @Override
+        public boolean matches(byte[] head, int length) {
+            return length >= 2 && (head[0] & 0xFF) == 0x1F && (head[1] & 0xFF) == 0x8B;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BLOCK);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BLOCK);
+        }
+    }
+}
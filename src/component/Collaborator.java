@@ -0,0 +1,442 @@
+package component;
+
+import entity.EditOperation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ *  Collaborator: share content of a TextBuffer with one peer over a socket (directly or through CollabRelay).
+ *    - local changes reported by TextBuffer are coalesced into operations (a run of typed characters becomes one
+ *      insertion, a run of backspaces one deletion) and sent in batches at most every FLUSH_MILLIS.
+ *    - the stream is deflated and flushed per batch, so repeated text and offsets cost few bytes.
+ *    - concurrent operations are merged by operational transformation (two-site Jupiter scheme): each batch carries
+ *      the number of peer operations its sender had applied, operations the peer had not seen yet are kept and
+ *      incoming operations are transformed against them. insertions at the same offset are ordered by site,
+ *      text inserted inside a range deleted concurrently is deleted on both sides.
+ *  on connection the host (site 0) sends its content, which replaces content of the guest (site 1).
+ *  TextBuffer is only touched on the editing thread given as executor (JavaFX application thread in editor),
+ *  socket reading and writing happen on two daemon threads.
+ */
+public class Collaborator implements TextBuffer.EditListener {
+    private static final int FLUSH_MILLIS = 20;
+    private static final int MAX_PENDING = 256;
+    private static final int PIECE = 1 << 16;
+    private static final byte INSERT = 0;
+    private static final byte DELETE = 1;
+
+    /**
+     *  receiver of session events, called on editing thread.
+     */
+    public interface Listener {
+        // sharing started, content is the same on both sides from now on.
+        void onStart();
+
+        // content was changed by peer (or replaced by content of host).
+        void onRemoteEdit();
+
+        // connection was closed or failed.
+        void onDisconnect(String reason);
+    }
+
+    private TextBuffer textBuffer;
+    private Executor editThread;
+    private Listener listener;
+    private int site;
+    private Socket socket;
+
+    // editing thread state: operations not yet sealed in a batch (last insertion still open for typing),
+    // operations sent but not acknowledged by peer, number of our operations peer acknowledged
+    // and number of peer operations applied.
+    private List<EditOperation> pending;
+    private StringBuilder openText;
+    private List<EditOperation> unacknowledged;
+    private int acknowledged;
+    private int received;
+    private int receivedSent;
+    private boolean sharing;
+    private boolean applying;
+
+    // batches waiting for writer thread.
+    private BlockingQueue<byte[]> outbox;
+    private volatile boolean flushRequested;
+    private volatile boolean closed;
+
+    public Collaborator(TextBuffer textBuffer, Executor editThread, Listener listener) {
+        this.textBuffer = textBuffer;
+        this.editThread = editThread;
+        this.listener = listener;
+        this.pending = new ArrayList<>();
+        this.unacknowledged = new ArrayList<>();
+        this.outbox = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     *  group methods to open a session, address is "PORT" to wait for a peer or "HOST:PORT" to connect
+     *  to a waiting peer or a relay.
+     */
+    public void start(String address) {
+        Thread thread = new Thread(() -> {
+            try {
+                int colon = address.lastIndexOf(':');
+                if (colon == -1) {
+                    try (ServerSocket server = new ServerSocket(Integer.parseInt(address))) {
+                        System.out.println("Waiting for collaboration peer on port " + address + "...");
+                        socket = server.accept();
+                    }
+                    // waiting side is host, peer is told to be guest.
+                    socket.getOutputStream().write(1);
+                    site = 0;
+                } else {
+                    socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                    site = socket.getInputStream().read();
+                    if (site == -1) {
+                        throw new IOException("Connection closed during handshake.");
+                    }
+                }
+                socket.setTcpNoDelay(true);
+                session();
+            } catch (EOFException e) {
+                disconnect("peer closed connection.");
+            } catch (IOException | RuntimeException e) {
+                disconnect(e.getMessage());
+            }
+        }, "Collaborator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop sharing and close connection.
+    public void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // closing anyway.
+        }
+    }
+
+    // exchange content, then keep reading batches of peer while writer thread sends ours.
+    private void session() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(socket.getOutputStream(), true)));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(socket.getInputStream())));
+        if (site == 0) {
+            sendContent(out);
+        } else {
+            receiveContent(in);
+        }
+        System.out.println("Collaboration started as " + (site == 0 ? "host." : "guest."));
+
+        Thread writer = new Thread(() -> write(out), "CollaboratorWriter");
+        writer.setDaemon(true);
+        writer.start();
+        while (true) {
+            int ack = in.readInt();
+            int count = in.readInt();
+            List<EditOperation> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                ops.add(readOperation(in));
+            }
+            editThread.execute(() -> receive(ack, ops));
+        }
+    }
+
+    // host: send content as it is when sharing starts, later changes are sent as operations.
+    private void sendContent(DataOutputStream out) throws IOException {
+        FutureTask<Snapshot> start = new FutureTask<>(() -> {
+            share();
+            return textBuffer.snapshot();
+        });
+        editThread.execute(start);
+        try (Snapshot snapshot = start.get()) {
+            out.writeLong(snapshot.size());
+            for (long offset = 0; offset < snapshot.size(); offset += PIECE) {
+                writeText(out, snapshot.getText(offset, Math.min(snapshot.size(), offset + PIECE)));
+            }
+            out.flush();
+        } catch (Exception e) {
+            throw new IOException("Failed to send content: " + e.getMessage(), e);
+        }
+        editThread.execute(() -> listener.onStart());
+    }
+
+    // guest: replace content with content of host, local changes made meanwhile are dropped.
+    private void receiveContent(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append(readText(in));
+        }
+        String text = sb.toString();
+        editThread.execute(() -> {
+            applying = true;
+            textBuffer.remove(0, textBuffer.getSize());
+            textBuffer.insert(0, text);
+            applying = false;
+            share();
+            listener.onRemoteEdit();
+            listener.onStart();
+        });
+    }
+
+    private void share() {
+        sharing = true;
+        textBuffer.addEditListener(this);
+    }
+
+
+    /**
+     *  group methods collecting local changes (editing thread), consecutive changes are merged into one operation.
+     */
+    @Override
+    public void inserted(long offset, String text) {
+        if (!sharing || applying) {
+            return;
+        }
+        EditOperation last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (openText != null && offset == last.getOffset() + openText.length()) {
+            openText.append(text);
+        } else {
+            seal();
+            pending.add(EditOperation.insert(offset, ""));
+            openText = new StringBuilder(text);
+        }
+        requestFlush();
+    }
+
+    @Override
+    public void removed(long offset, long length) {
+        if (!sharing || applying) {
+            return;
+        }
+        EditOperation last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (openText != null && length <= openText.length()
+                && offset + length == last.getOffset() + openText.length()) {
+            // backspace over text typed since last batch: the text is simply never sent.
+            openText.setLength(openText.length() - (int) length);
+            if (openText.length() == 0) {
+                pending.remove(pending.size() - 1);
+                openText = null;
+            }
+        } else if (openText == null && last != null && !last.isInsert() && offset + length == last.getOffset()) {
+            last.setOffset(offset);
+            last.setLength(last.getLength() + length);
+        } else if (openText == null && last != null && !last.isInsert() && offset == last.getOffset()) {
+            last.setLength(last.getLength() + length);
+        } else {
+            seal();
+            pending.add(EditOperation.delete(offset, length));
+        }
+        requestFlush();
+    }
+
+    // close open insertion, its text no longer grows.
+    private void seal() {
+        if (openText != null) {
+            EditOperation last = pending.get(pending.size() - 1);
+            last.setText(openText.toString());
+            last.setLength(openText.length());
+            openText = null;
+        }
+    }
+
+    // let writer thread schedule a flush, or flush at once when many operations are waiting.
+    private void requestFlush() {
+        if (pending.size() >= MAX_PENDING) {
+            flush();
+        } else {
+            flushRequested = true;
+        }
+    }
+
+    // encode pending operations as one batch acknowledging every peer operation applied so far.
+    // a batch without operations is sent to acknowledge alone, so peer can drop operations we have seen.
+    private void flush() {
+        flushRequested = false;
+        seal();
+        if (closed || (pending.isEmpty() && received == receivedSent)) {
+            return;
+        }
+        receivedSent = received;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(received);
+            out.writeInt(pending.size());
+            for (EditOperation op : pending) {
+                writeOperation(out, op);
+            }
+            outbox.add(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        unacknowledged.addAll(pending);
+        pending.clear();
+    }
+
+    // writer thread: send batches, ask editing thread for a flush when changes wait and nothing is being sent.
+    private void write(DataOutputStream out) {
+        try {
+            while (!closed) {
+                byte[] batch = outbox.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    out.write(batch);
+                    while ((batch = outbox.poll()) != null) {
+                        out.write(batch);
+                    }
+                    out.flush();
+                } else if (flushRequested) {
+                    flushRequested = false;
+                    editThread.execute(this::flush);
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            disconnect(e.getMessage());
+        }
+    }
+
+
+    /**
+     *  group methods merging operations of peer (editing thread).
+     */
+    // apply a batch of peer operations, each generated after the first ack of our operations.
+    private void receive(int ack, List<EditOperation> ops) {
+        // operations typed so far were made without seeing this batch, they are sent as such.
+        flush();
+        unacknowledged.subList(0, ack - acknowledged).clear();
+        acknowledged = ack;
+        applying = true;
+        for (EditOperation op : ops) {
+            for (int i = 0; i < unacknowledged.size(); i += 1) {
+                EditOperation local = unacknowledged.get(i);
+                EditOperation rebased = transform(op, local, site != 0);
+                unacknowledged.set(i, transform(local, op, site == 0));
+                op = rebased;
+            }
+            if (op.isInsert()) {
+                textBuffer.insert(op.getOffset(), op.getText());
+            } else {
+                textBuffer.remove(op.getOffset(), op.getLength());
+            }
+            received += 1;
+        }
+        applying = false;
+        flushRequested = true;
+        listener.onRemoteEdit();
+    }
+
+    // operation a rewritten to apply after operation b, both made on the same content.
+    // first: a goes first when both insert at the same offset.
+    static EditOperation transform(EditOperation a, EditOperation b, boolean first) {
+        long p = a.getOffset();
+        long q = b.getOffset();
+        if (a.isInsert() && b.isInsert()) {
+            if (p < q || (p == q && first)) {
+                return a;
+            }
+            return EditOperation.insert(p + b.getLength(), a.getText());
+        }
+        if (a.isInsert()) {
+            // b deletes [q, q + length).
+            if (p <= q) {
+                return a;
+            }
+            if (p >= q + b.getLength()) {
+                return EditOperation.insert(p - b.getLength(), a.getText());
+            }
+            return EditOperation.insert(q, "");
+        }
+        if (b.isInsert()) {
+            // a deletes [p, p + length), b inserts at q.
+            if (q <= p) {
+                return EditOperation.delete(p + b.getLength(), a.getLength());
+            }
+            if (q >= p + a.getLength()) {
+                return a;
+            }
+            return EditOperation.delete(p, a.getLength() + b.getLength());
+        }
+        long start = mapDeleted(p, q, b.getLength());
+        long end = mapDeleted(p + a.getLength(), q, b.getLength());
+        return EditOperation.delete(start, end - start);
+    }
+
+    // offset x after deleting length characters at offset q.
+    private static long mapDeleted(long x, long q, long length) {
+        if (x < q) {
+            return x;
+        }
+        return x >= q + length ? x - length : q;
+    }
+
+
+    /**
+     *  group methods encoding operations.
+     */
+    private static void writeOperation(DataOutputStream out, EditOperation op) throws IOException {
+        out.writeByte(op.isInsert() ? INSERT : DELETE);
+        out.writeLong(op.getOffset());
+        if (op.isInsert()) {
+            writeText(out, op.getText());
+        } else {
+            out.writeLong(op.getLength());
+        }
+    }
+
+    private static EditOperation readOperation(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long offset = in.readLong();
+        if (kind == INSERT) {
+            return EditOperation.insert(offset, readText(in));
+        }
+        return EditOperation.delete(offset, in.readLong());
+    }
+
+    // text is sent as UTF-16 code units, so pieces may split surrogate pairs, deflating removes the zero bytes.
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        out.writeInt(text.length());
+        out.writeChars(text);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i += 1) {
+            sb.append(in.readChar());
+        }
+        return sb.toString();
+    }
+
+    // report end of session once, on editing thread.
+    private void disconnect(String reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        editThread.execute(() -> {
+            sharing = false;
+            textBuffer.removeEditListener(this);
+            listener.onDisconnect(reason);
+        });
+    }
+}
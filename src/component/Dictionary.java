@@ -0,0 +1,216 @@
+package component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ *  Dictionary: word list for spell checking, read through a memory-mapped file.
+ *    - one lower-case word per line, lines sorted by their UTF-8 bytes. a list not in this form (e.g. a system word
+ *      list with capitals, sorted by locale) is normalized once into a copy in the temporary directory, which is
+ *      reused as long as the list does not change.
+ *    - a bloom filter (BITS_PER_WORD bits per word, HASHES probes) sits in front of the list: most misspelled
+ *      words are rejected without touching it, a word passing the filter is confirmed by a binary search over the
+ *      mapped bytes, so the list itself is never copied onto the heap.
+ *  lookups only read, so they can run on any thread once the dictionary is opened.
+ */
+public class Dictionary {
+    private static final int BITS_PER_WORD = 10;
+    private static final int HASHES = 7;
+
+    private MappedByteBuffer list;
+    private long[] bits;
+    private long bitCount;
+
+    public Dictionary(String path) throws IOException {
+        Path source = Paths.get(path);
+        list = map(source);
+        if (!isNormalized(list)) {
+            list = map(normalizedCopy(source));
+        }
+        buildFilter();
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // whether every line is lower case and sorts after the line before it, the last one may end without newline.
+    private static boolean isNormalized(ByteBuffer list) {
+        int previous = -1, start = 0;
+        for (int i = 0; i <= list.limit(); i += 1) {
+            byte b = i == list.limit() ? (byte) '\n' : list.get(i);
+            if (b >= 'A' && b <= 'Z' || b == '\r') {
+                return false;
+            }
+            if (b == '\n') {
+                if (i == list.limit() && i == start) {
+                    break;
+                }
+                if (previous != -1 && compare(list, previous, start - 1, list, start, i) >= 0) {
+                    return false;
+                }
+                previous = start;
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    // lower-cased, sorted and deduplicated copy of the list, written once per version of it.
+    private static Path normalizedCopy(Path source) throws IOException {
+        String name = "amEditor-" + source.getFileName() + "-" + Files.size(source) + "-"
+                + Files.getLastModifiedTime(source).toMillis() + ".dict";
+        Path copy = Paths.get(System.getProperty("java.io.tmpdir"), name);
+        if (Files.exists(copy)) {
+            return copy;
+        }
+        TreeSet<String> words = new TreeSet<>();
+        for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+            String word = line.trim().toLowerCase(Locale.ROOT);
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        // strings sort by UTF-16 units, the list is searched by UTF-8 bytes.
+        List<byte[]> encoded = new ArrayList<>(words.size());
+        for (String word : words) {
+            encoded.add(word.getBytes(StandardCharsets.UTF_8));
+        }
+        Collections.sort(encoded, (a, b) -> compare(ByteBuffer.wrap(a), 0, a.length, ByteBuffer.wrap(b), 0, b.length));
+        Path temp = Files.createTempFile(copy.getParent(), name, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (byte[] word : encoded) {
+                writer.write(new String(word, StandardCharsets.UTF_8));
+                writer.write('\n');
+            }
+        }
+        // another editor may be writing the same copy: whichever move comes last puts an equal file in place.
+        try {
+            Files.move(temp, copy, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(temp);
+        }
+        return copy;
+    }
+
+    // put every word of the list into the bloom filter.
+    private void buildFilter() {
+        int count = 0;
+        for (int i = 0; i < list.limit(); i += 1) {
+            if (list.get(i) == '\n' || i == list.limit() - 1) {
+                count += 1;
+            }
+        }
+        bitCount = Math.max(64, (long) count * BITS_PER_WORD);
+        bits = new long[(int) ((bitCount + 63) / 64)];
+        int start = 0;
+        for (int i = 0; i <= list.limit(); i += 1) {
+            if (i == list.limit() || list.get(i) == '\n') {
+                if (i > start) {
+                    long hash = hash(list, start, i);
+                    for (int k = 0; k < HASHES; k += 1) {
+                        long bit = probe(hash, k);
+                        bits[(int) (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+
+    /**
+     *  group methods looking words up.
+     */
+    // whether given word is in the list, compared in lower case.
+    public boolean contains(String word) {
+        byte[] key = word.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        long hash = hash(wrapped, 0, key.length);
+        for (int k = 0; k < HASHES; k += 1) {
+            long bit = probe(hash, k);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return search(wrapped, key.length);
+    }
+
+    // binary search over the lines of the list, each probe backs up to the start of the line it falls into.
+    private boolean search(ByteBuffer key, int length) {
+        int lo = 0, hi = list.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = mid;
+            while (start > lo && list.get(start - 1) != '\n') {
+                start -= 1;
+            }
+            int end = mid;
+            while (end < hi && list.get(end) != '\n') {
+                end += 1;
+            }
+            int order = compare(key, 0, length, list, start, end);
+            if (order == 0) {
+                return true;
+            } else if (order < 0) {
+                hi = start;
+            } else {
+                lo = end + 1;
+            }
+        }
+        return false;
+    }
+
+    // unsigned comparison of bytes [aFrom, aTo) of a with bytes [bFrom, bTo) of b.
+    private static int compare(ByteBuffer a, int aFrom, int aTo, ByteBuffer b, int bFrom, int bTo) {
+        int i = aFrom, j = bFrom;
+        while (i < aTo && j < bTo) {
+            int order = (a.get(i) & 0xFF) - (b.get(j) & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+            i += 1;
+            j += 1;
+        }
+        return (aTo - i) - (bTo - j);
+    }
+
+    // 64-bit FNV-1a of bytes [from, to), mixed so that both halves can seed the probes.
+    private static long hash(ByteBuffer bytes, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i += 1) {
+            h ^= bytes.get(i) & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // bit of the k-th probe, double hashing over the two halves of hash.
+    private long probe(long hash, int k) {
+        long step = (hash >>> 32) | 1;
+        return Math.floorMod((hash & 0xFFFFFFFFL) + k * step, bitCount);
+    }
+}
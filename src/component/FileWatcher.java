@@ -0,0 +1,322 @@
+package component;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ *  FileWatcher: detect changes made to the opened file by other processes with WatchService.
+ *    - file content is indexed in fixed-size blocks (checksum, character offset at block start).
+ *    - appended bytes are decoded and delivered alone, so tailing a growing log never re-reads old content.
+ *    - other changes are located by comparing block checksums and only content from the first changed block is re-read.
+ *    - after a save of the editor, blocks before the first byte the save changed are kept, the rest is read again.
+ *  all file reading happens on the watcher thread, results are delivered to listener on the JavaFX application thread.
+ */
+public class FileWatcher implements Runnable {
+    private static final int BLOCK = 1 << 16;
+    private static final int POLL_MILLIS = 200;
+
+    /**
+     *  receiver of external changes, called on JavaFX application thread.
+     */
+    public interface Listener {
+        // text appended at the end of file.
+        void onAppend(String text);
+
+        // content starting from given character offset has been replaced by text.
+        void onChange(long offset, String text);
+
+        // whole content of the file, read again as requested by reload.
+        void onReload(String text);
+    }
+
+    private Path path;
+    private Charset charset;
+    private Listener listener;
+    private Thread thread;
+
+    // block index: checksum of each complete block, character offset, undecoded bytes carried and whether the
+    // last character decoded was a dropped carriage return at each block start.
+    private long[] blockCrc;
+    private long[] blockChars;
+    private int[] blockCarry;
+    private boolean[] blockReturn;
+    private int blocks;
+
+    // scanning state at the end of indexed content.
+    private long position;
+    private long chars;
+    private CRC32 tailCrc;
+    private CharsetDecoder decoder;
+    private ByteBuffer in;
+    private CharBuffer out;
+    private boolean afterReturn;
+    private FileTime modified;
+
+    private volatile boolean suspended;
+    private volatile boolean resyncPending;
+    private volatile boolean reloadPending;
+    // leading bytes the last save left unchanged, and first byte of the file changed by others since last resync.
+    private volatile long savedUnchanged;
+    private long externalFrom = Long.MAX_VALUE;
+
+    public FileWatcher(IOManager ioManager, Listener listener) {
+        this.path = Paths.get(ioManager.getFilename()).toAbsolutePath();
+        this.charset = Charset.defaultCharset();
+        this.listener = listener;
+        this.blockCrc = new long[16];
+        this.blockChars = new long[17];
+        this.blockCarry = new int[17];
+        this.blockReturn = new boolean[17];
+        this.tailCrc = new CRC32();
+        this.in = ByteBuffer.allocate(BLOCK + 16);
+        this.out = CharBuffer.allocate(BLOCK + 16);
+    }
+
+    // start watching on a daemon thread.
+    public void start() {
+        thread = new Thread(this, "FileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     *  group methods to keep our own saves from being reported as external changes.
+     */
+    // called before the editor writes the file.
+    public void suspend() {
+        suspended = true;
+    }
+
+    // called after the editor wrote the file (or failed to), given number of leading bytes it left as they were.
+    // index is rebuilt from the first block holding a changed byte.
+    public void resume(long unchanged) {
+        savedUnchanged = unchanged;
+        resyncPending = true;
+        suspended = false;
+    }
+
+    // read the whole file again and deliver it to onReload, e.g. once the user chose to drop unsaved edits.
+    public void reload() {
+        reloadPending = true;
+    }
+
+
+    @Override
+    public void run() {
+        try (WatchService watchService = path.getFileSystem().newWatchService()) {
+            path.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            rescan(0, null);
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                boolean touched = false;
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        touched |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || path.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                }
+                if (suspended) {
+                    continue;
+                }
+                try {
+                    if (reloadPending) {
+                        reloadPending = false;
+                        externalFrom = Long.MAX_VALUE;
+                        String text = rescan(0, new StringBuilder());
+                        Platform.runLater(() -> listener.onReload(text));
+                    } else if (resyncPending) {
+                        resyncPending = false;
+                        resync();
+                    } else if (touched) {
+                        check();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Failed to read changes of " + path + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Stop watching " + path + ": " + e.getMessage());
+        }
+    }
+
+    // rebuild index after a save. the editor may have copied bytes from a version of the file that others changed
+    // since, so blocks are only kept up to the first change seen by either.
+    private void resync() throws IOException {
+        long from = Math.min(savedUnchanged, externalFrom);
+        externalFrom = Long.MAX_VALUE;
+        rescan((int) Math.min(blocks, from / BLOCK), null);
+    }
+
+    // compare file with index and deliver the difference.
+    private void check() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        long size = Files.size(path);
+        if (size == position && Files.getLastModifiedTime(path).equals(modified)) {
+            return;
+        }
+        int block;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean tailKept = size >= position && tailUnchanged(channel);
+            if (tailKept && size > position) {
+                externalFrom = Math.min(externalFrom, position);
+                String text = scan(channel, new StringBuilder());
+                Platform.runLater(() -> listener.onAppend(text));
+                return;
+            }
+            block = firstChangedBlock(channel, size);
+            if (tailKept && block == blocks) {
+                modified = Files.getLastModifiedTime(path);
+                return;
+            }
+        }
+        long offset = blockChars[block];
+        externalFrom = Math.min(externalFrom, (long) block * BLOCK);
+        String text = rescan(block, new StringBuilder());
+        Platform.runLater(() -> listener.onChange(offset, text));
+    }
+
+    // whether bytes of the last incomplete block are still the same as indexed.
+    private boolean tailUnchanged(FileChannel channel) throws IOException {
+        long start = (long) blocks * BLOCK;
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate((int) (position - start));
+        while (buf.hasRemaining() && channel.read(buf, start + buf.position()) > 0) {
+            // keep reading until tail bytes are all in buffer.
+        }
+        if (buf.hasRemaining()) {
+            return false;
+        }
+        buf.flip();
+        crc.update(buf);
+        return crc.getValue() == tailCrc.getValue();
+    }
+
+    // index of the first block whose checksum differs (or number of complete blocks if none differs).
+    private int firstChangedBlock(FileChannel channel, long size) throws IOException {
+        int limit = (int) Math.min(blocks, size / BLOCK);
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        CRC32 crc = new CRC32();
+        for (int b = 0; b < limit; b += 1) {
+            buf.clear();
+            while (buf.hasRemaining() && channel.read(buf, (long) b * BLOCK + buf.position()) > 0) {
+                // keep reading until whole block is in buffer.
+            }
+            buf.flip();
+            crc.reset();
+            crc.update(buf);
+            if (crc.getValue() != blockCrc[b]) {
+                return b;
+            }
+        }
+        return limit;
+    }
+
+    // drop index from given block on and scan the file again from there, collecting decoded text if required.
+    private String rescan(int block, StringBuilder sb) throws IOException {
+        blocks = block;
+        chars = blockChars[block];
+        position = (long) block * BLOCK - blockCarry[block];
+        afterReturn = blockReturn[block];
+        tailCrc.reset();
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        in.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // carried bytes belong to previous (unchanged) block, they are decoded but not checksummed again.
+            in.limit(blockCarry[block]);
+            while (in.hasRemaining() && channel.read(in, position + in.position()) > 0) {
+                // keep reading carried bytes.
+            }
+            position += in.position();
+            in.flip();
+            return scan(channel, sb);
+        }
+    }
+
+    // continue decoding and indexing from current position to the end of file.
+    private String scan(FileChannel channel, StringBuilder sb) throws IOException {
+        modified = Files.getLastModifiedTime(path);
+        while (true) {
+            long blockEnd = (long) (blocks + 1) * BLOCK;
+            in.compact();
+            in.limit((int) Math.min(in.capacity(), in.position() + (blockEnd - position)));
+            int start = in.position();
+            int n = channel.read(in, position);
+            if (n <= 0) {
+                in.flip();
+                break;
+            }
+            position += n;
+            tailCrc.update(in.array(), start, n);
+            in.flip();
+            decode(sb);
+            if (position == blockEnd) {
+                ensureCapacity();
+                blockCrc[blocks] = tailCrc.getValue();
+                tailCrc.reset();
+                blocks += 1;
+                blockChars[blocks] = chars;
+                blockCarry[blocks] = in.remaining();
+                blockReturn[blocks] = afterReturn;
+            }
+        }
+        return sb == null ? null : sb.toString();
+    }
+
+    // decode available bytes. carriage returns are dropped the same way IOManager.Reader does: a '\r' is dropped
+    // and the character following it is kept whatever it is, so of "\r\r" the second one stays.
+    private void decode(StringBuilder sb) {
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, false);
+            out.flip();
+            while (out.hasRemaining()) {
+                char c = out.get();
+                if (afterReturn) {
+                    afterReturn = false;
+                } else if (c == '\r') {
+                    afterReturn = true;
+                    continue;
+                }
+                chars += 1;
+                if (sb != null) {
+                    sb.append(c);
+                }
+            }
+            out.clear();
+        } while (result.isOverflow());
+    }
+
+    private void ensureCapacity() {
+        if (blocks + 1 >= blockCrc.length) {
+            blockCrc = Arrays.copyOf(blockCrc, blockCrc.length * 2);
+            blockChars = Arrays.copyOf(blockChars, blockChars.length * 2);
+            blockCarry = Arrays.copyOf(blockCarry, blockCarry.length * 2);
+            blockReturn = Arrays.copyOf(blockReturn, blockReturn.length * 2);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Folds: collapsed regions of content, each one whole logical lines [from, to) hidden below the line before them.
+ *    - made from a selection (lines it covers below its first one), from brackets (lines between a line holding an
+ *      opening bracket and the line of its match, located through the bracket index of TextBuffer) or from
+ *      indentation (following lines indented deeper than the line, blank lines in between included).
+ *    - kept sorted and disjoint, folding a region holding folds merges them into one.
+ *    - kept current as an EditListener of TextBuffer: edits before a fold move it, edits inside change its size,
+ *      an edit that would leave it not starting or ending at a line boundary opens it.
+ *    - the region covered by folds made or opened since last rendering pass is recorded (in current offsets, moved
+ *      by edits like folds), so RenderEngine only lays out that region again.
+ *  RenderEngine jumps over a fold in one traversal step, so hidden lines are neither read, laid out nor indexed.
+ */
+public class Folds implements TextBuffer.EditListener {
+    private TextBuffer textBuffer;
+    private List<Fold> folds;
+    // region [changedFrom, changedTo] of folds made or opened since last clearChanged, changedFrom is -1 if none.
+    private long changedFrom = -1;
+    private long changedTo;
+
+    private static class Fold {
+        private long from;
+        private long to;
+
+        private Fold(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public Folds(TextBuffer textBuffer) {
+        this.textBuffer = textBuffer;
+        this.folds = new ArrayList<>();
+        textBuffer.addEditListener(this);
+    }
+
+    public int size() {
+        return folds.size();
+    }
+
+
+    /**
+     *  group methods making and opening folds.
+     */
+    // hide lines of [start, end) below the line holding start, false if there are none.
+    public boolean foldLines(long start, long end) {
+        return add(lineEnd(start), lineEnd(Math.max(start, end - 1)));
+    }
+
+    // hide the block below the line holding given offset: up to the line closing the last bracket the line leaves
+    // open, else the following lines indented deeper than it. false if there is no such block.
+    public boolean foldAt(long offset) {
+        long start = lineStart(offset);
+        long end = lineEnd(offset);
+        for (long i = end - 1; i >= start; i -= 1) {
+            if (Chunk.bracket(textBuffer.charAt(i)) > 0) {
+                long match = textBuffer.matchingBracket(i);
+                if (match >= end) {
+                    return add(end, lineStart(match));
+                }
+            }
+        }
+        int indent = indentOf(start);
+        long to = end;
+        for (long line = end; line < textBuffer.getSize(); line = lineEnd(line)) {
+            int deeper = indentOf(line);
+            if (deeper == -1) {
+                continue;
+            }
+            if (deeper <= indent) {
+                break;
+            }
+            to = lineEnd(line);
+        }
+        return add(end, to);
+    }
+
+    // open the fold below the line holding given offset, or holding the offset itself. false if there is none.
+    public boolean unfoldAt(long offset) {
+        long below = lineEnd(offset);
+        for (int i = 0; i < folds.size(); i += 1) {
+            Fold fold = folds.get(i);
+            if (fold.from == below || (fold.from <= offset && offset < fold.to)) {
+                folds.remove(i);
+                changed(fold.from, fold.to);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // open the fold starting at given offset.
+    public void open(long from) {
+        int i = find(from);
+        if (i != -1) {
+            Fold fold = folds.remove(i);
+            changed(fold.from, fold.to);
+        }
+    }
+
+    // open the fold hiding given offset, i.e. starting before and ending after it, e.g. the offset of a cursor.
+    public void openHolding(long offset) {
+        int lo = 0, hi = folds.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (folds.get(mid).from < offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (lo <= hi) {
+            Fold fold = folds.get(lo);
+            if (fold.from < offset && offset < fold.to) {
+                folds.remove(lo);
+                changed(fold.from, fold.to);
+            }
+        }
+    }
+
+    // end of the fold starting at given offset, -1 if no fold starts there.
+    public long hiddenEnd(long from) {
+        int i = find(from);
+        return i == -1 ? -1 : folds.get(i).to;
+    }
+
+    // number among shown logical lines of given logical line (both counted from 1), a fold hiding it is opened.
+    public int visibleLine(int lineNo) {
+        long hidden = 0;
+        for (int i = 0; i < folds.size(); i += 1) {
+            Fold fold = folds.get(i);
+            long first = textBuffer.getStats(0, fold.from).getLines();
+            if (lineNo < first) {
+                break;
+            }
+            long count = textBuffer.getStats(fold.from, fold.to).getLines() - 1;
+            if (textBuffer.charAt(fold.to - 1) != '\n') {
+                count += 1;
+            }
+            if (lineNo < first + count) {
+                folds.remove(i);
+                changed(fold.from, fold.to);
+                break;
+            }
+            hidden += count;
+        }
+        return (int) (lineNo - hidden);
+    }
+
+    // add fold [from, to), swallowing folds it overlaps.
+    private boolean add(long from, long to) {
+        if (from >= to) {
+            return false;
+        }
+        int i = 0;
+        while (i < folds.size() && folds.get(i).to <= from) {
+            i += 1;
+        }
+        while (i < folds.size() && folds.get(i).from < to) {
+            Fold fold = folds.remove(i);
+            from = Math.min(from, fold.from);
+            to = Math.max(to, fold.to);
+        }
+        folds.add(i, new Fold(from, to));
+        changed(from, to);
+        return true;
+    }
+
+    // index of the fold starting at given offset, -1 if none.
+    private int find(long from) {
+        int lo = 0, hi = folds.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long start = folds.get(mid).from;
+            if (start == from) {
+                return mid;
+            } else if (start < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    // start of the line holding given offset.
+    private long lineStart(long offset) {
+        long start = Math.min(offset, textBuffer.getSize());
+        while (start > 0 && textBuffer.charAt(start - 1) != '\n') {
+            start -= 1;
+        }
+        return start;
+    }
+
+    // start of the line following the one holding given offset, size of content if it is the last one.
+    private long lineEnd(long offset) {
+        long newline = textBuffer.indexOf('\n', offset);
+        return newline == -1 ? textBuffer.getSize() : newline + 1;
+    }
+
+    // number of spaces and tabs the line starting at given offset begins with, -1 for a blank line.
+    private int indentOf(long start) {
+        int indent = 0;
+        long size = textBuffer.getSize();
+        for (long i = start; i < size; i += 1) {
+            char c = textBuffer.charAt(i);
+            if (c == '\n') {
+                break;
+            }
+            if (c != ' ' && c != '\t') {
+                return indent;
+            }
+            indent += 1;
+        }
+        return -1;
+    }
+
+
+    /**
+     *  group methods recording the region RenderEngine has to lay out again because folds changed.
+     */
+    // start of the region, -1 if no fold was made or opened since last clearChanged.
+    public long getChangedStart() {
+        return changedFrom;
+    }
+
+    // end of the region, valid while getChangedStart is not -1.
+    public long getChangedEnd() {
+        return changedTo;
+    }
+
+    // forget the region, called once a rendering pass laid it out.
+    public void clearChanged() {
+        changedFrom = -1;
+    }
+
+    // grow the region to cover [from, to].
+    private void changed(long from, long to) {
+        if (changedFrom == -1) {
+            changedFrom = from;
+            changedTo = to;
+        } else {
+            changedFrom = Math.min(changedFrom, from);
+            changedTo = Math.max(changedTo, to);
+        }
+    }
+
+
+    /**
+     *  group methods following changes of content.
+     */
+    @Override
+    public void inserted(long offset, String text) {
+        int length = text.length();
+        if (length == 0) {
+            return;
+        }
+        if (changedFrom != -1) {
+            changedFrom += offset < changedFrom ? length : 0;
+            changedTo += offset <= changedTo ? length : 0;
+        }
+        for (int i = folds.size() - 1; i >= 0; i -= 1) {
+            Fold fold = folds.get(i);
+            if (offset < fold.from || (offset == fold.from && text.charAt(length - 1) == '\n')) {
+                fold.from += length;
+                fold.to += length;
+            } else if (offset == fold.from) {
+                // text joins the first hidden line.
+                folds.remove(i);
+                changed(fold.from, fold.to + length);
+            } else if (offset < fold.to) {
+                fold.to += length;
+            }
+        }
+    }
+
+    @Override
+    public void removed(long offset, long length) {
+        long end = offset + length;
+        if (changedFrom != -1) {
+            changedFrom = changedFrom <= offset ? changedFrom : Math.max(offset, changedFrom - length);
+            changedTo = changedTo <= offset ? changedTo : Math.max(offset, changedTo - length);
+        }
+        for (int i = folds.size() - 1; i >= 0; i -= 1) {
+            Fold fold = folds.get(i);
+            if (offset >= fold.to) {
+                continue;
+            }
+            if (end < fold.from || (end == fold.from && (offset == 0 || textBuffer.charAt(offset - 1) == '\n'))) {
+                fold.from -= length;
+                fold.to -= length;
+            } else if (offset >= fold.from && end < fold.to) {
+                fold.to -= length;
+            } else {
+                // a line boundary of the fold is gone, what is left of it shows again.
+                folds.remove(i);
+                changed(Math.min(fold.from, offset), Math.max(offset, fold.to - length));
+            }
+        }
+    }
+}
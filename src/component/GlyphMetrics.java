@@ -0,0 +1,144 @@
+package component;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  GlyphMetrics: metric tables of one font family, one table per font size.
+ *    - Font object and line height of each size.
+ *    - rounded advance width of each character, measured once and then looked up
+ *      (array for Latin-1 characters, hashmap for the rest).
+ *    - whether all widths of one size are an exact multiple of those of another,
+ *      so a layout can be scaled instead of being wrapped again.
+ *  tables are filled lazily, prefetch can be used to fill Latin-1 range ahead of time. nothing of JavaFX is touched
+ *  before a table is needed, so a subclass overriding width can lay out text headless.
+ */
+public class GlyphMetrics {
+    private static final int TABLE_SIZE = 256;
+
+    private String fontType;
+    private Map<Integer, Table> tables;
+    // -1 if not linear, otherwise number of non Latin-1 characters of source size verified so far.
+    private Map<Long, Integer> linearity;
+    private Text measurer;
+
+    private class Table {
+        private Font font;
+        private int lineHeight;
+        private int[] widths;
+        private Map<Character, Integer> others;
+        private boolean complete;
+
+        private Table(int size) {
+            if (measurer == null) {
+                measurer = new Text();
+            }
+            font = new Font(fontType, size);
+            measurer.setFont(font);
+            measurer.setText("AM");
+            lineHeight = round(measurer.getLayoutBounds().getHeight());
+            widths = new int[TABLE_SIZE];
+            Arrays.fill(widths, -1);
+            others = new HashMap<>();
+        }
+
+        private int width(char c) {
+            if (c < TABLE_SIZE) {
+                if (widths[c] == -1) {
+                    widths[c] = measure(c);
+                }
+                return widths[c];
+            }
+            Integer w = others.get(c);
+            if (w == null) {
+                w = measure(c);
+                others.put(c, w);
+            }
+            return w;
+        }
+
+        private int measure(char c) {
+            measurer.setFont(font);
+            measurer.setText(String.valueOf(c));
+            return round(measurer.getLayoutBounds().getWidth());
+        }
+    }
+
+    public GlyphMetrics(String fontType) {
+        this.fontType = fontType;
+        this.tables = new HashMap<>();
+        this.linearity = new HashMap<>();
+    }
+
+    private Table table(int size) {
+        Table table = tables.get(size);
+        if (table == null) {
+            table = new Table(size);
+            tables.put(size, table);
+        }
+        return table;
+    }
+
+    // font object of given size, shared by every text node.
+    public Font font(int size) {
+        return table(size).font;
+    }
+
+    // line height of given size.
+    public int lineHeight(int size) {
+        return table(size).lineHeight;
+    }
+
+    // rounded advance width of given character at given size.
+    public int width(char c, int size) {
+        return table(size).width(c);
+    }
+
+    // measure whole Latin-1 range of given size ahead of time.
+    public void prefetch(int size) {
+        Table table = table(size);
+        if (!table.complete) {
+            for (char c = 0; c < TABLE_SIZE; c += 1) {
+                table.width(c);
+            }
+            table.complete = true;
+        }
+    }
+
+    // whether every character width at size "to" equals its width at size "from" scaled by to / from.
+    // characters measured only at "from" size are measured at "to" size as well, so the answer covers
+    // every character laid out with "from" size so far.
+    public boolean scalesLinearly(int from, int to) {
+        long key = ((long) from << 32) | to;
+        Table source = table(from);
+        Table target = table(to);
+        Integer verified = linearity.get(key);
+        if (verified != null && (verified == -1 || verified == source.others.size())) {
+            return verified != -1;
+        }
+
+        prefetch(from);
+        prefetch(to);
+        boolean linear = true;
+        for (int c = 0; c < TABLE_SIZE && linear; c += 1) {
+            linear = (long) target.widths[c] * from == (long) source.widths[c] * to;
+        }
+        for (Map.Entry<Character, Integer> entry : new ArrayList<>(source.others.entrySet())) {
+            if (!linear) {
+                break;
+            }
+            linear = (long) target.width(entry.getKey()) * from == (long) entry.getValue() * to;
+        }
+        linearity.put(key, linear ? source.others.size() : -1);
+        return linear;
+    }
+
+    private int round(double val) {
+        return (int) Math.round(val);
+    }
+}
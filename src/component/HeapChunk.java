@@ -0,0 +1,69 @@
+package component;
+
+/**
+ *  HeapChunk: chunk keeping its characters in a Java byte array (Latin-1) or char array (UTF-16).
+ */
+class HeapChunk extends Chunk {
+    static final int CAPACITY = 4096;
+
+    private byte[] bytes;
+    private char[] chars;
+
+    HeapChunk() {
+        bytes = new byte[CAPACITY];
+    }
+
+    @Override
+    int capacity() {
+        return CAPACITY;
+    }
+
+    @Override
+    char charAt(int i) {
+        return latin ? (char) (bytes[i] & 0xFF) : chars[i];
+    }
+
+    @Override
+    protected void put(int i, char c) {
+        if (latin) {
+            bytes[i] = (byte) c;
+        } else {
+            chars[i] = c;
+        }
+    }
+
+    @Override
+    protected void move(int from, int to, int count) {
+        if (latin) {
+            System.arraycopy(bytes, from, bytes, to, count);
+        } else {
+            System.arraycopy(chars, from, chars, to, count);
+        }
+    }
+
+    @Override
+    protected void recode(boolean latin) {
+        if (latin) {
+            bytes = new byte[CAPACITY];
+            for (int i = 0; i < length; i += 1) {
+                bytes[i] = (byte) chars[i];
+            }
+            chars = null;
+        } else {
+            chars = new char[CAPACITY];
+            for (int i = 0; i < length; i += 1) {
+                chars[i] = (char) (bytes[i] & 0xFF);
+            }
+            bytes = null;
+        }
+    }
+
+    @Override
+    void appendTo(StringBuilder sb, int from, int to) {
+        if (latin) {
+            super.appendTo(sb, from, to);
+        } else {
+            sb.append(chars, from, to - from);
+        }
+    }
+}
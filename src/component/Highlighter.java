@@ -0,0 +1,134 @@
+package component;
+
+import javafx.scene.paint.Color;
+import javafx.scene.text.Text;
+import tokenizer.TokenType;
+import tokenizer.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Highlighter: incremental syntax highlighting driven by a pluggable Tokenizer.
+ *    - lexer state at the start of each logical line (or segment of a long one, see ParagraphLayout) is cached in
+ *      its ParagraphLayout, a token cut by a segment boundary (string, comment, word) goes on in the state of the
+ *      next segment.
+ *    - after an edit, re-lex only from the first dirty paragraph until lexer state converges with cached state,
+ *      paragraphs are visited in order through the LayoutTree of RenderEngine.
+ *    - styles are applied to visible lines only.
+ *  dirty paragraphs are reported by RenderEngine during its rendering pass, so no extra traversal is needed.
+ */
+public class Highlighter {
+    private static final Map<TokenType, Color> COLORS = new EnumMap<>(TokenType.class);
+
+    static {
+        COLORS.put(TokenType.PLAIN, Color.BLACK);
+        COLORS.put(TokenType.KEYWORD, Color.DARKBLUE);
+        COLORS.put(TokenType.STRING, Color.DARKGREEN);
+        COLORS.put(TokenType.NUMBER, Color.DARKMAGENTA);
+        COLORS.put(TokenType.COMMENT, Color.GRAY);
+    }
+
+    private TextBuffer textBuffer;
+    private Tokenizer tokenizer;
+
+    // first and last paragraph laid out or touched by an edit in current rendering pass, in content order.
+    private ParagraphLayout firstDirty, lastDirty;
+
+    // reusable containers for lexing and painting one line.
+    private StringBuilder lineText;
+    private List<Object> lineViews;
+    private Tokenizer.TokenSink painter;
+
+    public Highlighter(TextBuffer textBuffer, Tokenizer tokenizer) {
+        this.textBuffer = textBuffer;
+        this.tokenizer = tokenizer;
+        this.lineText = new StringBuilder();
+        this.lineViews = new ArrayList<>();
+        this.painter = (start, end, type) -> {
+            Color color = COLORS.get(type);
+            for (int i = start; i < end; i += 1) {
+                Object view = lineViews.get(i);
+                if (view != null) {
+                    ((Text) view).setFill(color);
+                }
+            }
+        };
+    }
+
+
+    /**
+     *  group methods called by RenderEngine during its rendering pass.
+     */
+    // forget dirty paragraphs of last pass.
+    void beginPass() {
+        firstDirty = null;
+        lastDirty = null;
+    }
+
+    // given paragraph is new or touched by an edit, its lexer state is not known. called in content order.
+    void markDirty(ParagraphLayout paragraph) {
+        if (firstDirty == null) {
+            firstDirty = paragraph;
+        }
+        lastDirty = paragraph;
+    }
+
+    // re-lex dirty paragraphs and following ones until lexer state converges, then start a new edit generation.
+    void endPass(LayoutTree paragraphs) {
+        textBuffer.nextGeneration();
+        if (firstDirty == null) {
+            return;
+        }
+        ParagraphLayout paragraph = paragraphs.locate(firstDirty);
+        long start = paragraphs.getFoundStart();
+        ParagraphLayout before = paragraphs.previous(paragraph);
+        int state = tokenizer.initialState();
+        if (before != null) {
+            state = lex(before, start - before.getExtent(), before.getState(), null);
+        }
+        boolean passed = false;
+        while (paragraph != null) {
+            paragraph.setState(state);
+            state = lex(paragraph, start, state, null);
+            passed |= paragraph == lastDirty;
+            start += paragraph.getExtent();
+            paragraph = paragraphs.next(paragraph);
+            if (passed && paragraph != null && paragraph.getState() == state) {
+                break;
+            }
+        }
+        firstDirty = null;
+        lastDirty = null;
+    }
+
+    // apply styles to paragraphs covering visual lines [firstVisual, lastVisual].
+    void paint(LayoutTree paragraphs, int firstVisual, int lastVisual) {
+        ParagraphLayout paragraph = paragraphs.findLine(Math.max(0, firstVisual));
+        if (paragraph == null) {
+            return;
+        }
+        long start = paragraphs.getFoundStart();
+        int line = paragraphs.getFoundLine();
+        while (paragraph != null && line <= lastVisual) {
+            lineViews.clear();
+            paragraph.collectViews(lineViews);
+            lex(paragraph, start, paragraph.getState(), painter);
+            start += paragraph.getExtent();
+            line += paragraph.getLineCount();
+            paragraph = paragraphs.next(paragraph);
+        }
+    }
+
+    // lex one logical line (or segment) starting at given offset from given state.
+    private int lex(ParagraphLayout paragraph, long start, int state, Tokenizer.TokenSink sink) {
+        lineText.setLength(0);
+        textBuffer.collectLine(start, start + paragraph.getLength(), lineText);
+        if (paragraph.isContinued()) {
+            return tokenizer.tokenizePart(lineText, state, sink);
+        }
+        return tokenizer.tokenize(lineText, state, sink);
+    }
+}
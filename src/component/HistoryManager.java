@@ -2,8 +2,10 @@ package component;
 
 import entity.*;
 
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  *  HistoryManager: manage undo and redo operations.
@@ -43,32 +45,7 @@ public class HistoryManager {
             System.out.println("Nothing for rollback.");
             return;
         }
-        Event e = eventlist.removeLast();
-        if (e instanceof AddEvent) {
-            textBuffer.setcurNodeToGivenPos(((AddEvent) e).getElement());
-            Object[] nodeinfo = textBuffer.delete();
-            DeleteEvent re_e = new DeleteEvent();
-            re_e.setPre(nodeinfo[1]);
-            re_e.setElement(nodeinfo[0]);
-            undonelist.addLast(re_e);
-        } else if (e instanceof DeleteEvent) {
-            textBuffer.setcurNodeToGivenPos(((DeleteEvent) e).getPre());
-            textBuffer.addNode(((DeleteEvent) e).getElement());
-            AddEvent re_e = new AddEvent();
-            re_e.setElement(((DeleteEvent) e).getElement());
-            undonelist.addLast(re_e);
-        } else if (e instanceof PasteEvent) {
-            Deque<Object> nodes = new LinkedList<>();
-            textBuffer.setcurNodeToGivenPos(((PasteEvent) e).getLastNode());
-            for (int i = 0; i < ((PasteEvent) e).getLength(); i += 1) {
-                nodes.addFirst(textBuffer.delete()[0]);
-            }
-            SequenceDeleteEvent re_e = new SequenceDeleteEvent();
-            re_e.setNodes(nodes);
-            re_e.setStart(textBuffer.getCurrentPosNode());
-            undonelist.addLast(re_e);
-        }
-
+        undonelist.addLast(revert(eventlist.removeLast()));
     }
 
     // method for redo operation.
@@ -77,33 +54,64 @@ public class HistoryManager {
             System.out.println("Nothing for rollback recovery");
             return;
         }
-        Event e = undonelist.removeLast();
-        if (e instanceof AddEvent) {
-            textBuffer.setcurNodeToGivenPos(((AddEvent) e).getElement());
-            Object[] nodeinfo = textBuffer.delete();
-            DeleteEvent un_e = new DeleteEvent();
-            un_e.setPre(nodeinfo[1]);
-            un_e.setElement(nodeinfo[0]);
-            eventlist.addLast(un_e);
-        } else if (e instanceof DeleteEvent) {
-            textBuffer.setcurNodeToGivenPos(((DeleteEvent) e).getPre());
-            textBuffer.addNode(((DeleteEvent) e).getElement());
-            AddEvent un_e = new AddEvent();
-            un_e.setElement(((DeleteEvent) e).getElement());
-            eventlist.addLast(un_e);
-        } else if (e instanceof SequenceDeleteEvent) {
-            textBuffer.setcurNodeToGivenPos(((SequenceDeleteEvent) e).getStart());
-            Deque<Object> nodes = ((SequenceDeleteEvent) e).getNodes();
-            for (Object node : nodes) {
-                textBuffer.addNode(node);
+        eventlist.addLast(revert(undonelist.removeLast()));
+    }
+
+    // apply the opposite of given event, return the event reverting it again.
+    // events record offsets, they stay valid since events are always reverted in reverse order.
+    private Event revert(Event e) {
+        if (e instanceof GroupEvent) {
+            List<Event> events = ((GroupEvent) e).getEvents();
+            List<Event> reverted = new ArrayList<>(events.size());
+            for (int i = events.size() - 1; i >= 0; i -= 1) {
+                reverted.add(revert(events.get(i)));
             }
-            PasteEvent un_e = new PasteEvent();
-            un_e.setLastNode(nodes.getLast());
-            un_e.setLength(nodes.size());
-            eventlist.addLast(un_e);
+            GroupEvent re_e = new GroupEvent();
+            re_e.setEvents(reverted);
+            return re_e;
+        } else if (e instanceof AddEvent) {
+            long offset = ((AddEvent) e).getOffset();
+            textBuffer.setCursor(offset + 1);
+            DeleteEvent re_e = new DeleteEvent();
+            re_e.setElement((char) textBuffer.delete());
+            re_e.setOffset(offset);
+            return re_e;
+        } else if (e instanceof DeleteEvent) {
+            long offset = ((DeleteEvent) e).getOffset();
+            textBuffer.setCursor(offset);
+            textBuffer.add(((DeleteEvent) e).getElement());
+            AddEvent re_e = new AddEvent();
+            re_e.setOffset(offset);
+            return re_e;
+        } else if (e instanceof PasteEvent) {
+            long end = ((PasteEvent) e).getEnd();
+            int length = ((PasteEvent) e).getLength();
+            SequenceDeleteEvent re_e = new SequenceDeleteEvent();
+            re_e.setText(textBuffer.getText(end - length, end));
+            re_e.setStart(end - length);
+            textBuffer.setCursor(end);
+            textBuffer.remove(end - length, length);
+            return re_e;
+        } else {
+            String text = ((SequenceDeleteEvent) e).getText();
+            long start = ((SequenceDeleteEvent) e).getStart();
+            textBuffer.setCursor(start);
+            textBuffer.insert(start, text);
+            PasteEvent re_e = new PasteEvent();
+            re_e.setEnd(textBuffer.getCursor());
+            re_e.setLength(text.length());
+            return re_e;
         }
     }
 
+    /**
+     *  drop all records, used when content is replaced from outside (records may refer to removed content).
+     */
+    public void clear() {
+        eventlist.clear();
+        clearRedo();
+    }
+
     /**
      *  clear undonelist supporting redo operation.
      */
@@ -1,26 +1,81 @@
 package component;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
 
 /**
  *   IOManager: managing file input and output based on specified filename from Terminal.
+ *   keeps the version of the file content was read from (Source) open, so unchanged content can be saved by
+ *   copying its bytes.
+ *   a compressed file (see Codec) is decompressed while read and compressed again while saved, its bytes are never
+ *   copied.
  */
 public class IOManager {
+    private static final int BLOCK = 1 << 16;
+
     public String filename;
+    private Charset charset;
+    private Codec codec;
+    private volatile Source source;
 
     public IOManager(String filename) {
         this.filename = filename;
+        this.charset = Charset.defaultCharset();
     }
 
     public String getFilename() {
         return filename;
     }
 
+    // whether the file is stored compressed, known once a Reader has been created.
+    public boolean isCompressed() {
+        return codec != null;
+    }
+
+    // version of the file content was read from or last saved to, null if its charset is not tracked
+    // or the file is compressed.
+    Source getSource() {
+        return source;
+    }
+
+    // refer to the version of the file now in place, the previous one is closed.
+    private Source replaceSource(Path path) throws IOException {
+        Source old = source;
+        source = codec == null ? Source.open(path, charset) : null;
+        if (old != null) {
+            old.close();
+        }
+        return source;
+    }
+
     /**
      *  inner class Reader should first check validity of given filename, then support method for read one character each time.
+     *  bytes are decoded here instead of by a java.io.Reader, so the file position of every character is known:
+     *  a character is clean if its bytes are exactly its encoding (no carriage return dropped before it,
+     *  no malformed input replaced by it).
      */
     public class Reader {
-        private BufferedReader reader;
+        private ReadableByteChannel channel;
+        private CharsetDecoder decoder;
+        private ByteBuffer in;
+        private CharBuffer out;
+        private boolean eof;
+        private boolean finished;
+        private int replaced;
+        private long position;
+        private boolean clean;
+        private boolean lastClean;
 
         public Reader() throws IOException {
             File file = new File(filename);
@@ -33,38 +88,236 @@ public class IOManager {
                     throw new RuntimeException("Failed to create a new file.");
                 }
             }
-            reader = new BufferedReader(new FileReader(file));
+            codec = Codec.of(file.toPath());
+            // a new file named after a codec has no content to decompress yet.
+            if (codec == null || file.length() == 0) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } else {
+                channel = Channels.newChannel(codec.decompress(Files.newInputStream(file.toPath())));
+            }
+            replaceSource(file.toPath());
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            in = ByteBuffer.allocate(BLOCK);
+            in.flip();
+            out = CharBuffer.allocate(BLOCK);
+            out.flip();
         }
 
+        // next character, (char)-1 once the end of file is reached (also on later calls).
         public char getNextCharacter() throws IOException {
-            int c;
-            if ((c = reader.read()) != -1) {
-                if ((char)c == '\r') {
-                    c = reader.read();
+            if (finished) {
+                return (char)-1;
+            }
+            int c = decodeNext();
+            boolean dropped = false;
+            if (c == '\r') {
+                c = decodeNext();
+                dropped = true;
+            }
+            if (c == -1) {
+                finished = true;
+                channel.close();
+                return (char)-1;
+            }
+            clean = lastClean && !dropped;
+            return (char)c;
+        }
+
+        // stop reading before the end of file.
+        public void close() throws IOException {
+            finished = true;
+            channel.close();
+        }
+
+        // byte position in file right after the last character returned.
+        public long getPosition() {
+            return position;
+        }
+
+        // whether the last character returned is clean.
+        public boolean isClean() {
+            return clean;
+        }
+
+        // next decoded character, -1 at the end of file.
+        private int decodeNext() throws IOException {
+            while (!out.hasRemaining()) {
+                if (!decode()) {
+                    return -1;
                 }
-                return (char)c;
             }
-            reader.close();
-            return (char)-1;
+            char c = out.get();
+            if (replaced > 0) {
+                position += replaced;
+                replaced = 0;
+                lastClean = false;
+            } else {
+                position += source == null ? 1 : source.encodedLength(c);
+                lastClean = c != '\uFFFD';
+            }
+            return c;
+        }
+
+        // decode next characters into out, false at the end of file.
+        // malformed input is replaced by U+FFFD, decoded alone so the number of bytes it replaced is known.
+        private boolean decode() throws IOException {
+            out.clear();
+            while (true) {
+                CoderResult result = decoder.decode(in, out, eof);
+                if (result.isError()) {
+                    if (out.position() == 0) {
+                        in.position(in.position() + result.length());
+                        out.put('\uFFFD');
+                        replaced = result.length();
+                    }
+                    break;
+                }
+                if (out.position() > 0 || eof) {
+                    break;
+                }
+                in.compact();
+                eof = channel.read(in) == -1;
+                in.flip();
+            }
+            out.flip();
+            return out.hasRemaining();
         }
     }
 
     /**
-     *   inner class Write should write content currently maintained by TextBuffer instance to the given path one character by one character.
+     *   inner class Writer should write a new version of the file: bytes are collected in a temporary file next
+     *   to it, which is put in place of the file by commit, so the file keeps its old content until then.
+     *     - characters are encoded in blocks, a high surrogate ending a block waits for the next one.
+     *     - consecutive byte ranges of a source are copied by one channel transfer.
+     *     - for a compressed file, encoded bytes are compressed as they are written.
      */
     public class Writer {
-        private BufferedWriter writer;
+        private Path target;
+        private Path temp;
+        private WritableByteChannel channel;
+        private CharsetEncoder encoder;
+        private CharBuffer chars;
+        private ByteBuffer bytes;
+        private long written;
+
+        private Source run;
+        private long runStart, runEnd;
 
         public Writer() throws IOException {
-            writer = new BufferedWriter(new FileWriter(new File(filename)));
+            Path path = Paths.get(filename);
+            target = Files.exists(path) ? path.toRealPath() : path.toAbsolutePath();
+            temp = target.resolveSibling(target.getFileName() + ".saving");
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            if (codec != null) {
+                channel = Channels.newChannel(codec.compress(Channels.newOutputStream(channel)));
+            }
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = CharBuffer.allocate(BLOCK);
+            bytes = ByteBuffer.allocateDirect(BLOCK);
         }
 
-        public void writeNextCharacter(char c) throws IOException {
-            writer.write(c);
+        // encode all characters of chunk.
+        void write(Chunk chunk) throws IOException {
+            flushRun();
+            if (isPending() && chunk.length() > 0 && !Character.isLowSurrogate(chunk.charAt(0))) {
+                settle();
+            }
+            for (int i = 0; i < chunk.length(); i += 1) {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                chars.put(chunk.charAt(i));
+            }
+            encode(false);
         }
 
-        public void close() throws IOException {
-            writer.close();
+        // copy bytes [start, end) of source unchanged.
+        void copy(Source source, long start, long end) throws IOException {
+            settle();
+            flushBytes();
+            if (run == source && runEnd == start) {
+                runEnd = end;
+                return;
+            }
+            flushRun();
+            run = source;
+            runStart = start;
+            runEnd = end;
+        }
+
+        // number of bytes written so far, a high surrogate waiting for its pair is not counted yet.
+        long position() {
+            return written + bytes.position() + (run == null ? 0 : runEnd - runStart);
+        }
+
+        // put the new version in place of the file, return source referring to it (null if charset is not tracked).
+        Source commit() throws IOException {
+            try {
+                settle();
+                flushBytes();
+                flushRun();
+                channel.close();
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException | IOException e) {
+                    // new file keeps default permissions.
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return replaceSource(target);
+        }
+
+        // whether a high surrogate is waiting for its pair.
+        private boolean isPending() {
+            return chars.position() > 0;
+        }
+
+        // encode characters collected so far.
+        private void encode(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+                flushBytes();
+            }
+            chars.compact();
+        }
+
+        // finish encoding, a high surrogate still waiting has no pair and is replaced.
+        private void settle() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                flushBytes();
+            }
+            encoder.reset();
+        }
+
+        private void flushBytes() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                written += channel.write(bytes);
+            }
+            bytes.clear();
+        }
+
+        private void flushRun() throws IOException {
+            if (run == null) {
+                return;
+            }
+            run.transferTo(runStart, runEnd, channel);
+            written += runEnd - runStart;
+            run = null;
         }
     }
 }
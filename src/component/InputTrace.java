@@ -0,0 +1,359 @@
+package component;
+
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventType;
+import javafx.scene.Scene;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.stage.Stage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ *  InputTrace: record the input events handled by the editor window to a file and feed them back later, so the
+ *  latency of real sessions can be compared between builds.
+ *    - every record is the time since the previous one (microseconds), its kind and its payload, numbers are
+ *      written as variable-length integers, so a trace takes a few bytes per keystroke.
+ *    - key presses, typed characters, mouse presses / clicks / drags, window resizes and scroll bar moves are
+ *      recorded, clipboard text is recorded before each paste so the same text is pasted again.
+ *    - Ctrl+G is not recorded: its dialog waits for input that is not part of the trace.
+ *  replaying dispatches every event to the scene on the JavaFX application thread, through the same handlers, and
+ *  reports percentiles of the time spent handling each kind of event.
+ */
+public class InputTrace {
+    private static final int MAGIC = 0x414D5452;
+    private static final int VERSION = 1;
+
+    // record kinds.
+    private static final int KEY_PRESSED = 0;
+    private static final int KEY_TYPED = 1;
+    private static final int MOUSE_PRESSED = 2;
+    private static final int MOUSE_DRAGGED = 3;
+    private static final int MOUSE_CLICKED = 4;
+    private static final int RESIZE = 5;
+    private static final int SCROLL = 6;
+    private static final int CLIPBOARD = 7;
+    private static final String[] NAMES = {"key", "type", "press", "drag", "click", "resize", "scroll", "clipboard"};
+
+    // modifier bits.
+    private static final int SHIFT = 1;
+    private static final int CONTROL = 2;
+    private static final int ALT = 4;
+    private static final int META = 8;
+
+    /**
+     *  inner class Recorder should log the events reaching the scene until it is closed.
+     *  events are observed by filters, so recording does not change how they are handled.
+     */
+    public static class Recorder {
+        private DataOutputStream out;
+        private long last;
+        private IOException error;
+
+        public Recorder(String filename, Scene scene, ScrollBar scrollBar) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            last = System.nanoTime();
+
+            scene.addEventFilter(KeyEvent.KEY_PRESSED, keyEvent -> {
+                if (keyEvent.isShortcutDown() && keyEvent.getCode() == KeyCode.G) {
+                    return;
+                }
+                if (keyEvent.isShortcutDown() && keyEvent.getCode() == KeyCode.V) {
+                    String text = Clipboard.getSystemClipboard().getString();
+                    begin(CLIPBOARD);
+                    writeString(text == null ? "" : text);
+                }
+                begin(KEY_PRESSED);
+                writeVarint(keyEvent.getCode().getCode());
+                writeVarint(modifiers(keyEvent.isShiftDown(), keyEvent.isControlDown(), keyEvent.isAltDown(),
+                        keyEvent.isMetaDown()));
+            });
+            scene.addEventFilter(KeyEvent.KEY_TYPED, keyEvent -> {
+                begin(KEY_TYPED);
+                writeString(keyEvent.getCharacter());
+                writeVarint(modifiers(keyEvent.isShiftDown(), keyEvent.isControlDown(), keyEvent.isAltDown(),
+                        keyEvent.isMetaDown()));
+            });
+            scene.addEventFilter(MouseEvent.MOUSE_PRESSED, mouseEvent -> mouse(MOUSE_PRESSED, mouseEvent));
+            scene.addEventFilter(MouseEvent.MOUSE_DRAGGED, mouseEvent -> mouse(MOUSE_DRAGGED, mouseEvent));
+            scene.addEventFilter(MouseEvent.MOUSE_CLICKED, mouseEvent -> mouse(MOUSE_CLICKED, mouseEvent));
+            scene.widthProperty().addListener((observable, oldValue, newValue) -> resize(scene));
+            scene.heightProperty().addListener((observable, oldValue, newValue) -> resize(scene));
+            scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> {
+                begin(SCROLL);
+                writeVarint(newValue.intValue());
+            });
+        }
+
+        // finish the trace file.
+        public void close() throws IOException {
+            out.close();
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        private void mouse(int kind, MouseEvent mouseEvent) {
+            begin(kind);
+            // quarter pixels, zigzag encoded: a drag may leave the window.
+            writeVarint(zigzag((int) Math.round(mouseEvent.getX() * 4)));
+            writeVarint(zigzag((int) Math.round(mouseEvent.getY() * 4)));
+            writeVarint(mouseEvent.getClickCount());
+            writeVarint(modifiers(mouseEvent.isShiftDown(), mouseEvent.isControlDown(), mouseEvent.isAltDown(),
+                    mouseEvent.isMetaDown()));
+        }
+
+        private void resize(Scene scene) {
+            begin(RESIZE);
+            writeVarint((int) Math.round(scene.getWidth()));
+            writeVarint((int) Math.round(scene.getHeight()));
+        }
+
+        // start a record of given kind, stamped with the time since the previous record.
+        private void begin(int kind) {
+            long now = System.nanoTime();
+            writeVarint((int) Math.min((now - last) / 1000, Integer.MAX_VALUE));
+            last = now;
+            writeVarint(kind);
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        // non-negative integer in groups of 7 bits, lowest group first.
+        private void writeVarint(int value) {
+            try {
+                while ((value & ~0x7F) != 0) {
+                    out.writeByte((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                out.writeByte(value);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     *  inner class Replayer should read a trace on its own thread and dispatch its events one at a time on the
+     *  JavaFX application thread, as fast as they are handled or, with realTime, at their recorded times.
+     *  the time each event spends in handlers is collected per kind and reported once the trace ends.
+     */
+    public static class Replayer implements Runnable {
+        private DataInputStream in;
+        private Stage stage;
+        private ScrollBar scrollBar;
+        private boolean realTime;
+        private Runnable onFinish;
+        private Thread thread;
+
+        private Map<Integer, KeyCode> keyCodes;
+        private long[][] latencies;
+        private int[] counts;
+
+        public Replayer(String filename, Stage stage, ScrollBar scrollBar, boolean realTime, Runnable onFinish)
+                throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                in.close();
+                throw new RuntimeException("Not an input trace: " + filename + ".");
+            }
+            this.stage = stage;
+            this.scrollBar = scrollBar;
+            this.realTime = realTime;
+            this.onFinish = onFinish;
+
+            keyCodes = new HashMap<>();
+            for (KeyCode code : KeyCode.values()) {
+                keyCodes.putIfAbsent(code.getCode(), code);
+            }
+            latencies = new long[NAMES.length][16];
+            counts = new int[NAMES.length];
+        }
+
+        // start replaying on a daemon thread.
+        public void start() {
+            thread = new Thread(this, "Replayer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            long due = System.nanoTime();
+            try {
+                int delay;
+                while ((delay = readVarint()) != -1) {
+                    int kind = readField();
+                    Runnable dispatch = read(kind);
+                    due += delay * 1000L;
+                    long wait = due - System.nanoTime();
+                    if (realTime && wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    FutureTask<Long> task = new FutureTask<>(() -> {
+                        long start = System.nanoTime();
+                        dispatch.run();
+                        return System.nanoTime() - start;
+                    });
+                    Platform.runLater(task);
+                    record(kind, task.get());
+                }
+                in.close();
+            } catch (IOException e) {
+                System.out.println("Failed to read the input trace: " + e.getMessage());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Replayed event failed.", e.getCause());
+            } catch (InterruptedException e) {
+                return;
+            }
+            report();
+            Platform.runLater(onFinish);
+        }
+
+        // read payload of a record, return the action dispatching it.
+        private Runnable read(int kind) throws IOException {
+            if (kind == KEY_PRESSED) {
+                KeyCode code = keyCodes.getOrDefault(readField(), KeyCode.UNDEFINED);
+                int modifiers = readField();
+                return () -> fire(new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", code,
+                        (modifiers & SHIFT) != 0, (modifiers & CONTROL) != 0, (modifiers & ALT) != 0,
+                        (modifiers & META) != 0));
+            } else if (kind == KEY_TYPED) {
+                String character = readString();
+                int modifiers = readField();
+                return () -> fire(new KeyEvent(KeyEvent.KEY_TYPED, character, "", KeyCode.UNDEFINED,
+                        (modifiers & SHIFT) != 0, (modifiers & CONTROL) != 0, (modifiers & ALT) != 0,
+                        (modifiers & META) != 0));
+            } else if (kind == MOUSE_PRESSED || kind == MOUSE_DRAGGED || kind == MOUSE_CLICKED) {
+                double x = unzigzag(readField()) / 4.0;
+                double y = unzigzag(readField()) / 4.0;
+                int clickCount = readField();
+                int modifiers = readField();
+                EventType<MouseEvent> type = kind == MOUSE_PRESSED ? MouseEvent.MOUSE_PRESSED
+                        : kind == MOUSE_DRAGGED ? MouseEvent.MOUSE_DRAGGED : MouseEvent.MOUSE_CLICKED;
+                return () -> fire(new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, clickCount,
+                        (modifiers & SHIFT) != 0, (modifiers & CONTROL) != 0, (modifiers & ALT) != 0,
+                        (modifiers & META) != 0, true, false, false, false, false, true, null));
+            } else if (kind == RESIZE) {
+                int width = readField();
+                int height = readField();
+                return () -> {
+                    Scene scene = stage.getScene();
+                    stage.setWidth(width + stage.getWidth() - scene.getWidth());
+                    stage.setHeight(height + stage.getHeight() - scene.getHeight());
+                };
+            } else if (kind == SCROLL) {
+                int value = readField();
+                return () -> scrollBar.setValue(value);
+            } else if (kind == CLIPBOARD) {
+                String text = readString();
+                return () -> {
+                    ClipboardContent content = new ClipboardContent();
+                    content.putString(text);
+                    Clipboard.getSystemClipboard().setContent(content);
+                };
+            }
+            throw new RuntimeException("Unknown input trace record " + kind + ".");
+        }
+
+        private void fire(Event event) {
+            Event.fireEvent(stage.getScene(), event);
+        }
+
+        private void record(int kind, long nanos) {
+            if (counts[kind] == latencies[kind].length) {
+                latencies[kind] = Arrays.copyOf(latencies[kind], counts[kind] * 2);
+            }
+            latencies[kind][counts[kind]] = nanos;
+            counts[kind] += 1;
+        }
+
+        // print count and latency percentiles (microseconds) of every kind of event replayed.
+        private void report() {
+            System.out.println(String.format("%-10s %8s %8s %8s %8s %8s", "event", "count", "p50", "p90", "p99",
+                    "max"));
+            for (int kind = 0; kind < NAMES.length; kind += 1) {
+                int n = counts[kind];
+                if (n == 0) {
+                    continue;
+                }
+                long[] sorted = Arrays.copyOf(latencies[kind], n);
+                Arrays.sort(sorted);
+                System.out.println(String.format("%-10s %8d %8d %8d %8d %8d", NAMES[kind], n,
+                        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[n - 1] / 1000));
+            }
+        }
+
+        private static long percentile(long[] sorted, int p) {
+            int index = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+            return sorted[Math.max(index, 0)] / 1000;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[readField()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // integer inside a record.
+        private int readField() throws IOException {
+            int value = readVarint();
+            if (value == -1) {
+                throw new EOFException("Input trace ends inside a record.");
+            }
+            return value;
+        }
+
+        // integer written by Recorder.writeVarint, -1 at the end of trace.
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                if (b == -1) {
+                    if (shift == 0) {
+                        return -1;
+                    }
+                    throw new EOFException("Input trace ends inside a record.");
+                }
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int modifiers(boolean shift, boolean control, boolean alt, boolean meta) {
+        return (shift ? SHIFT : 0) | (control ? CONTROL : 0) | (alt ? ALT : 0) | (meta ? META : 0);
+    }
+}
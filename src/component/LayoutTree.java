@@ -0,0 +1,342 @@
+package component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *  LayoutTree: index of the paragraph layouts of content in content order, a treap like ChunkTree.
+ *    - each ParagraphLayout is a tree node, heap-ordered by a random priority, so depth stays O(log n) on average.
+ *    - every node keeps totals of its subtree: characters (from the start of a paragraph to the start of the next
+ *      one, lines hidden by a fold below it included), visual lines and paragraphs beginning a logical line.
+ *    - start offsets and line numbers are not stored in paragraphs but summed on a root-to-leaf path, so the
+ *      paragraph holding an offset, a visual line or the n-th logical line is found in O(log n), and replacing
+ *      the paragraphs an edit touched leaves the ones behind it in place.
+ */
+class LayoutTree {
+    private ParagraphLayout root;
+    private Random random;
+    private long foundStart;
+    private int foundLine;
+
+    LayoutTree() {
+        random = new Random();
+    }
+
+
+    /**
+     *  group methods changing the sequence of paragraphs.
+     */
+    // drop every paragraph and index given ones in order instead, in linear time.
+    void build(List<ParagraphLayout> paragraphs) {
+        // nodes on the right spine, a node popped from it is complete and gets its totals.
+        ParagraphLayout[] spine = new ParagraphLayout[16];
+        int top = 0;
+        for (ParagraphLayout node : paragraphs) {
+            node.priority = random.nextInt();
+            node.right = null;
+            node.parent = null;
+            ParagraphLayout popped = null;
+            while (top > 0 && spine[top - 1].priority < node.priority) {
+                popped = spine[--top];
+                pull(popped);
+            }
+            node.left = popped;
+            if (popped != null) {
+                popped.parent = node;
+            }
+            if (top > 0) {
+                spine[top - 1].right = node;
+                node.parent = spine[top - 1];
+            }
+            if (top == spine.length) {
+                spine = Arrays.copyOf(spine, top * 2);
+            }
+            spine[top++] = node;
+        }
+        while (top > 0) {
+            pull(spine[--top]);
+        }
+        root = paragraphs.isEmpty() ? null : spine[0];
+    }
+
+    // insert node right after pre (as first paragraph if pre is null).
+    void insertAfter(ParagraphLayout pre, ParagraphLayout node) {
+        node.left = null;
+        node.right = null;
+        node.priority = random.nextInt();
+        pull(node);
+        if (root == null) {
+            node.parent = null;
+            root = node;
+            return;
+        }
+        ParagraphLayout parent;
+        if (pre == null) {
+            parent = leftmost(root);
+            parent.left = node;
+        } else if (pre.right == null) {
+            parent = pre;
+            parent.right = node;
+        } else {
+            parent = leftmost(pre.right);
+            parent.left = node;
+        }
+        node.parent = parent;
+        update(parent);
+        while (node.parent != null && node.priority > node.parent.priority) {
+            rotateUp(node);
+        }
+    }
+
+    // remove node from tree.
+    void remove(ParagraphLayout node) {
+        while (node.left != null || node.right != null) {
+            if (node.right == null || (node.left != null && node.left.priority > node.right.priority)) {
+                rotateUp(node.left);
+            } else {
+                rotateUp(node.right);
+            }
+        }
+        ParagraphLayout p = node.parent;
+        if (p == null) {
+            root = null;
+        } else {
+            if (p.left == node) {
+                p.left = null;
+            } else {
+                p.right = null;
+            }
+            update(p);
+        }
+        node.parent = null;
+    }
+
+    // recompute totals of node and its ancestors after its line count or extent changed.
+    void update(ParagraphLayout node) {
+        for (ParagraphLayout p = node; p != null; p = p.parent) {
+            pull(p);
+        }
+    }
+
+
+    /**
+     *  group methods answering queries, a paragraph found comes with its start offset and first visual line
+     *  (see getFoundStart, getFoundLine).
+     */
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    int lines() {
+        return root == null ? 0 : (int) root.subLines;
+    }
+
+    int logicalLines() {
+        return root == null ? 0 : (int) root.subLogical;
+    }
+
+    // paragraph holding given offset (the last one for an offset behind content), null if there is none.
+    ParagraphLayout find(long offset) {
+        ParagraphLayout node = root;
+        long start = 0, line = 0;
+        while (node != null) {
+            ParagraphLayout left = node.left;
+            if (left != null && offset < start + left.subChars) {
+                node = left;
+                continue;
+            }
+            if (left != null) {
+                start += left.subChars;
+                line += left.subLines;
+            }
+            if (offset < start + node.getExtent() || node.right == null) {
+                return found(node, start, line);
+            }
+            start += node.getExtent();
+            line += node.getLineCount();
+            node = node.right;
+        }
+        return null;
+    }
+
+    // paragraph holding given visual line counted from 0 (the last one for a line behind content), null if none.
+    ParagraphLayout findLine(int visual) {
+        ParagraphLayout node = root;
+        long start = 0, line = 0;
+        while (node != null) {
+            ParagraphLayout left = node.left;
+            if (left != null && visual < line + left.subLines) {
+                node = left;
+                continue;
+            }
+            if (left != null) {
+                start += left.subChars;
+                line += left.subLines;
+            }
+            if (visual < line + node.getLineCount() || node.right == null) {
+                return found(node, start, line);
+            }
+            start += node.getExtent();
+            line += node.getLineCount();
+            node = node.right;
+        }
+        return null;
+    }
+
+    // paragraph beginning given logical line counted from 0 (the last one behind content), null if none.
+    ParagraphLayout findLogical(int logical) {
+        ParagraphLayout node = root;
+        long start = 0, line = 0, count = 0;
+        while (node != null) {
+            ParagraphLayout left = node.left;
+            if (left != null && logical < count + left.subLogical) {
+                node = left;
+                continue;
+            }
+            if (left != null) {
+                start += left.subChars;
+                line += left.subLines;
+                count += left.subLogical;
+            }
+            int own = node.isLogicalStart() ? 1 : 0;
+            if (logical < count + own || node.right == null) {
+                return found(node, start, line);
+            }
+            start += node.getExtent();
+            line += node.getLineCount();
+            count += own;
+            node = node.right;
+        }
+        return null;
+    }
+
+    // find start offset and first visual line of given paragraph.
+    ParagraphLayout locate(ParagraphLayout node) {
+        long start = 0, line = 0;
+        if (node.left != null) {
+            start = node.left.subChars;
+            line = node.left.subLines;
+        }
+        for (ParagraphLayout child = node, p = node.parent; p != null; child = p, p = p.parent) {
+            if (p.right == child) {
+                if (p.left != null) {
+                    start += p.left.subChars;
+                    line += p.left.subLines;
+                }
+                start += p.getExtent();
+                line += p.getLineCount();
+            }
+        }
+        return found(node, start, line);
+    }
+
+    // start offset of paragraph returned by last query.
+    long getFoundStart() {
+        return foundStart;
+    }
+
+    // first visual line of paragraph returned by last query.
+    int getFoundLine() {
+        return foundLine;
+    }
+
+    private ParagraphLayout found(ParagraphLayout node, long start, long line) {
+        foundStart = start;
+        foundLine = (int) line;
+        return node;
+    }
+
+    // paragraph following given one, null for the last one.
+    ParagraphLayout next(ParagraphLayout node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        ParagraphLayout child = node;
+        ParagraphLayout p = node.parent;
+        while (p != null && p.right == child) {
+            child = p;
+            p = p.parent;
+        }
+        return p;
+    }
+
+    // paragraph before given one, null for the first one.
+    ParagraphLayout previous(ParagraphLayout node) {
+        if (node.left != null) {
+            ParagraphLayout p = node.left;
+            while (p.right != null) {
+                p = p.right;
+            }
+            return p;
+        }
+        ParagraphLayout child = node;
+        ParagraphLayout p = node.parent;
+        while (p != null && p.left == child) {
+            child = p;
+            p = p.parent;
+        }
+        return p;
+    }
+
+
+    /**
+     *  group methods maintaining tree shape and totals.
+     */
+    private ParagraphLayout leftmost(ParagraphLayout node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    // rotate node above its parent, keeping content order.
+    private void rotateUp(ParagraphLayout node) {
+        ParagraphLayout p = node.parent;
+        ParagraphLayout g = p.parent;
+        if (p.left == node) {
+            p.left = node.right;
+            if (node.right != null) {
+                node.right.parent = p;
+            }
+            node.right = p;
+        } else {
+            p.right = node.left;
+            if (node.left != null) {
+                node.left.parent = p;
+            }
+            node.left = p;
+        }
+        p.parent = node;
+        node.parent = g;
+        if (g == null) {
+            root = node;
+        } else if (g.left == p) {
+            g.left = node;
+        } else {
+            g.right = node;
+        }
+        pull(p);
+        pull(node);
+    }
+
+    // recompute totals of node from its children and its own layout.
+    private void pull(ParagraphLayout node) {
+        long chars = node.getExtent();
+        long lineCount = node.getLineCount();
+        long logical = node.isLogicalStart() ? 1 : 0;
+        if (node.left != null) {
+            chars += node.left.subChars;
+            lineCount += node.left.subLines;
+            logical += node.left.subLogical;
+        }
+        if (node.right != null) {
+            chars += node.right.subChars;
+            lineCount += node.right.subLines;
+            logical += node.right.subLogical;
+        }
+        node.subChars = chars;
+        node.subLines = lineCount;
+        node.subLogical = logical;
+    }
+}
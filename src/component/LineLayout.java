@@ -0,0 +1,129 @@
+package component;
+
+import java.util.Arrays;
+
+/**
+ *  LineLayout: layout result of one visual line, produced by RenderEngine during rendering pass.
+ *    - start offset of the line relative to its paragraph.
+ *    - views (text objects) of characters placed on the line in order (terminating newline excluded),
+ *      present only while the line is mounted (shown in window), and the y coordinate they are placed at.
+ *    - cumulative advance array: advances[i] is the total width of the first i characters,
+ *      so x -> column lookup is a binary search and column -> x lookup is an array read.
+ *  instances are owned by ParagraphLayout and reused when a paragraph is laid out again.
+ */
+public class LineLayout {
+    private int start;
+    private Object[] views;
+    private int[] advances;
+    private int size;
+    private boolean mounted;
+    private int mountedY;
+    private int mountPass;
+
+    public LineLayout() {
+        views = new Object[16];
+        advances = new int[17];
+    }
+
+    // clear line for reuse, line begins at given offset relative to paragraph start.
+    public void reset(int start) {
+        Arrays.fill(views, 0, size, null);
+        this.start = start;
+        size = 0;
+        mounted = false;
+    }
+
+    // start offset of the line relative to paragraph start.
+    public int getStart() {
+        return start;
+    }
+
+    // append view (null while not mounted) of a character with its width.
+    public void add(Object view, int width) {
+        if (size == views.length) {
+            views = Arrays.copyOf(views, size * 2);
+            advances = Arrays.copyOf(advances, size * 2 + 1);
+        }
+        views[size] = view;
+        advances[size + 1] = advances[size] + width;
+        size += 1;
+    }
+
+    // move the last count characters to the beginning of given (empty) line, used by word wrapping.
+    public void moveTailTo(int count, LineLayout other) {
+        for (int i = size - count; i < size; i += 1) {
+            other.add(views[i], advances[i + 1] - advances[i]);
+            views[i] = null;
+        }
+        size -= count;
+    }
+
+    // scale all advances by to / from, used when every character width scales exactly by that ratio.
+    public void scale(int from, int to) {
+        for (int i = 1; i <= size; i += 1) {
+            advances[i] = (int) ((long) advances[i] * to / from);
+        }
+    }
+
+    // number of characters on the line.
+    public int size() {
+        return size;
+    }
+
+    // view at given column, null while line is not mounted.
+    public Object viewAt(int column) {
+        return views[column];
+    }
+
+    public void setView(int column, Object view) {
+        views[column] = view;
+    }
+
+    // line views are placed at given y coordinate.
+    public void mount(int y) {
+        mounted = true;
+        mountedY = y;
+    }
+
+    // drop views of the line, they are given back to the view pool by caller.
+    public void unmount() {
+        Arrays.fill(views, 0, size, null);
+        mounted = false;
+    }
+
+    public boolean isMounted() {
+        return mounted;
+    }
+
+    public int getMountedY() {
+        return mountedY;
+    }
+
+    // number of the mounting pass the line was last found in window.
+    public int getMountPass() {
+        return mountPass;
+    }
+
+    public void setMountPass(int mountPass) {
+        this.mountPass = mountPass;
+    }
+
+    // x offset (relative to line start) right before given column.
+    public int xAt(int column) {
+        return advances[column];
+    }
+
+    // column of the first character whose right edge passes x, line size if x is beyond line end.
+    public int columnAt(int x) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (advances[mid + 1] > x) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,124 @@
+package component;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+
+/**
+ *  Loader: read the rest of a file whose head is already in TextBuffer, on a background thread.
+ *    - content is delivered in blocks of about BLOCK characters, each one ending at a newline (unless it is the
+ *      last one, or MAX_BLOCK characters came without newline), so RenderEngine lays out only the appended
+ *      paragraphs instead of all content, and a file without newlines still arrives in bounded blocks.
+ *    - a block decoded unchanged from the file is delivered with its byte position, so its chunks keep
+ *      referring to their bytes and saving copies them.
+ *    - at most MAX_PENDING blocks wait for the JavaFX application thread, so reading never runs far ahead of
+ *      rendering and the window keeps responding to input while a large file is loaded.
+ *  blocks and the end of loading are delivered to listener on the JavaFX application thread.
+ */
+public class Loader implements Runnable {
+    // characters read before the window is first shown, enough for the first screen.
+    public static final int HEAD = 1 << 14;
+    private static final int BLOCK = 1 << 16;
+    // length a block is cut at when no newline comes, e.g. in a minified file of one line.
+    private static final int MAX_BLOCK = 4 * BLOCK;
+    private static final int MAX_PENDING = 2;
+
+    /**
+     *  receiver of loaded content, called on JavaFX application thread.
+     */
+    public interface Listener {
+        // text read following current content, decoded unchanged from bytes starting at sourceStart
+        // (-1 if some character was not, see IOManager.Reader).
+        void onLoad(String text, long sourceStart);
+
+        // the whole file has been delivered.
+        void onFinish();
+    }
+
+    private IOManager.Reader reader;
+    private Listener listener;
+    private Thread thread;
+    private int pending;
+    private boolean clean;
+    private volatile boolean loading;
+
+    public Loader(IOManager.Reader reader, Listener listener) {
+        this.reader = reader;
+        this.listener = listener;
+    }
+
+    // start reading on a daemon thread.
+    public void start() {
+        loading = true;
+        thread = new Thread(this, "Loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // whether part of the file has not been delivered yet.
+    public boolean isLoading() {
+        return loading;
+    }
+
+    @Override
+    public void run() {
+        try {
+            StringBuilder sb = new StringBuilder(BLOCK + 256);
+            boolean more = true;
+            while (more) {
+                long start = reader.getPosition();
+                more = readBlock(sb);
+                if (sb.length() > 0) {
+                    String text = sb.toString();
+                    long sourceStart = clean ? start : -1;
+                    sb.setLength(0);
+                    awaitPending();
+                    Platform.runLater(() -> {
+                        listener.onLoad(text, sourceStart);
+                        delivered();
+                    });
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read the rest of the file: " + e.getMessage());
+        } catch (InterruptedException e) {
+            return;
+        }
+        Platform.runLater(() -> {
+            loading = false;
+            listener.onFinish();
+        });
+    }
+
+    // read characters up to a newline once BLOCK characters are collected, or up to MAX_BLOCK characters (never
+    // between the two halves of a surrogate pair), return false at the end of file.
+    // whether every character is clean is kept in clean.
+    private boolean readBlock(StringBuilder sb) throws IOException {
+        clean = true;
+        char c;
+        while ((c = reader.getNextCharacter()) != (char)-1) {
+            sb.append(c);
+            clean &= reader.isClean();
+            if (c == '\n' && sb.length() >= BLOCK) {
+                return true;
+            }
+            if (sb.length() >= MAX_BLOCK && !Character.isHighSurrogate(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // wait until fewer than MAX_PENDING blocks are waiting for the application thread.
+    private synchronized void awaitPending() throws InterruptedException {
+        while (pending >= MAX_PENDING) {
+            wait();
+        }
+        pending += 1;
+    }
+
+    private synchronized void delivered() {
+        pending -= 1;
+        notifyAll();
+    }
+}
@@ -0,0 +1,85 @@
+package component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  OffHeapArena: storage of OffHeapChunk characters outside the Java heap.
+ *    - direct buffers of REGION_SIZE bytes are reserved on demand and cut into fixed-size slots,
+ *      one pool of one-byte-per-character slots and one of two-bytes-per-character slots.
+ *    - a slot freed by a chunk is kept on a free list and handed to the next chunk needing one.
+ *  the heap only holds chunk objects and region handles, so heap size does not grow with content size.
+ *  slots may be freed by snapshots closed on other threads, so pools are synchronized.
+ *  direct memory is limited by -XX:MaxDirectMemorySize, which must be raised for very large files.
+ */
+class OffHeapArena {
+    static final int CAPACITY = 1 << 16;
+    private static final int REGION_SIZE = 1 << 26;
+
+    /**
+     *  slots of one size.
+     */
+    class Pool {
+        private final int slotSize;
+        private final int slotsPerRegion;
+        private List<ByteBuffer> regions;
+        private int used;
+        private int[] free;
+        private int freeCount;
+
+        private Pool(int slotSize) {
+            this.slotSize = slotSize;
+            this.slotsPerRegion = REGION_SIZE / slotSize;
+            this.regions = new ArrayList<>();
+            this.free = new int[16];
+        }
+
+        // take a slot, reserving a new region when every slot is in use.
+        synchronized int allocate() {
+            if (freeCount > 0) {
+                freeCount -= 1;
+                return free[freeCount];
+            }
+            if (used == regions.size() * slotsPerRegion) {
+                regions.add(ByteBuffer.allocateDirect(REGION_SIZE).order(ByteOrder.nativeOrder()));
+            }
+            used += 1;
+            return used - 1;
+        }
+
+        // give slot back for reuse.
+        synchronized void free(int slot) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount] = slot;
+            freeCount += 1;
+        }
+
+        // region holding given slot.
+        synchronized ByteBuffer region(int slot) {
+            return regions.get(slot / slotsPerRegion);
+        }
+
+        // byte offset of given slot in its region.
+        int base(int slot) {
+            return (slot % slotsPerRegion) * slotSize;
+        }
+    }
+
+    final Pool latin;
+    final Pool utf16;
+
+    OffHeapArena() {
+        latin = new Pool(CAPACITY);
+        utf16 = new Pool(CAPACITY * 2);
+    }
+
+    // bytes of direct memory reserved so far.
+    long reserved() {
+        return (long) (latin.regions.size() + utf16.regions.size()) * REGION_SIZE;
+    }
+}
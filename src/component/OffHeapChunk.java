@@ -0,0 +1,77 @@
+package component;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  OffHeapChunk: chunk keeping its characters in a slot of an OffHeapArena.
+ *  chunks are larger than heap ones, so even huge content needs few chunk objects.
+ */
+class OffHeapChunk extends Chunk {
+    private final OffHeapArena arena;
+    private int slot;
+    private ByteBuffer region;
+    private int base;
+
+    OffHeapChunk(OffHeapArena arena) {
+        this.arena = arena;
+        attach(arena.latin);
+    }
+
+    private void attach(OffHeapArena.Pool pool) {
+        slot = pool.allocate();
+        region = pool.region(slot);
+        base = pool.base(slot);
+    }
+
+    @Override
+    int capacity() {
+        return OffHeapArena.CAPACITY;
+    }
+
+    @Override
+    char charAt(int i) {
+        return latin ? (char) (region.get(base + i) & 0xFF) : region.getChar(base + 2 * i);
+    }
+
+    @Override
+    protected void put(int i, char c) {
+        if (latin) {
+            region.put(base + i, (byte) c);
+        } else {
+            region.putChar(base + 2 * i, c);
+        }
+    }
+
+    @Override
+    protected void move(int from, int to, int count) {
+        if (count == 0) {
+            return;
+        }
+        // bulk copy inside one direct buffer has memmove semantics.
+        int width = latin ? 1 : 2;
+        region.put(base + to * width, region, base + from * width, count * width);
+    }
+
+    @Override
+    protected void recode(boolean latin) {
+        OffHeapArena.Pool oldPool = latin ? arena.utf16 : arena.latin;
+        int oldSlot = slot;
+        ByteBuffer oldRegion = region;
+        int oldBase = base;
+        attach(latin ? arena.latin : arena.utf16);
+        for (int i = 0; i < length; i += 1) {
+            if (latin) {
+                region.put(base + i, (byte) oldRegion.getChar(oldBase + 2 * i));
+            } else {
+                region.putChar(base + 2 * i, (char) (oldRegion.get(oldBase + i) & 0xFF));
+            }
+        }
+        oldPool.free(oldSlot);
+    }
+
+    @Override
+    protected void release() {
+        (latin ? arena.latin : arena.utf16).free(slot);
+        region = null;
+    }
+}
@@ -0,0 +1,206 @@
+package component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ *  ParagraphLayout: cached line-break result of one logical line (paragraph), matched by its start offset.
+ *  a very long logical line is laid out as several segments, each one a ParagraphLayout of its own starting a new
+ *  visual line, so editing it only breaks the edited segment again.
+ *    - visual lines of the paragraph (LineLayout with cumulative advances, and views while shown in window).
+ *    - span interval [minSpan, maxSpan) in which wrapping decisions stay the same:
+ *      every overflow check that passed needs span >= x, every check that wrapped needs span < x.
+ *      a paragraph whose natural width fits the span has no upper bound at all.
+ *    - font size it was laid out with.
+ *    - number of characters (newline excluded) and whether the logical line goes on in the next segment.
+ *    - characters up to the start of the next paragraph, whether it begins a logical line and the lexer state at
+ *      its start (see Highlighter).
+ *  paragraphs of content are nodes of a LayoutTree, their start offsets and first visual lines are kept there.
+ *  line breaking itself only needs characters and glyph widths, so it also runs on the background thread of Relayout.
+ */
+public class ParagraphLayout {
+    private List<LineLayout> lines;
+    private int lineCount;
+    private int length;
+    private boolean continued;
+    private long extent;
+    private boolean logicalStart;
+    private int state;
+
+    private int minSpan;
+    private int maxSpan;
+    private int fontSize;
+
+    // LayoutTree fields: links, heap priority and totals of the subtree rooted at this paragraph.
+    ParagraphLayout left, right, parent;
+    int priority;
+    long subChars, subLines, subLogical;
+
+    public ParagraphLayout() {
+        lines = new ArrayList<>();
+    }
+
+    // clear layout for reuse, line objects are kept.
+    public void reset(int fontSize) {
+        this.fontSize = fontSize;
+        lineCount = 0;
+        minSpan = 0;
+        maxSpan = Integer.MAX_VALUE;
+    }
+
+    // start a new visual line beginning at given offset relative to paragraph start.
+    public LineLayout newLine(int start) {
+        if (lineCount == lines.size()) {
+            lines.add(new LineLayout());
+        }
+        LineLayout line = lines.get(lineCount++);
+        line.reset(start);
+        return line;
+    }
+
+    // compute line breaks of length characters taken one by one from chars, with widths of given font size,
+    // first character of a line drawn at x0, recording the span interval in which the result stays valid.
+    public void breakLines(IntSupplier chars, int length, GlyphMetrics metrics, int fontSize, int span, int x0) {
+        reset(fontSize);
+        LineLayout line = newLine(0);
+        int x = x0;
+        int wordLength = 0;
+
+        for (int index = 0; index < length; index += 1) {
+            char c = (char) chars.getAsInt();
+            int width = metrics.width(c, fontSize);
+            line.add(null, width);
+            x += width;
+            if (c == ' ') {
+                wordLength = 0;
+                continue;
+            }
+
+            wordLength += 1;
+            if (x <= span) {
+                fitAt(x);
+                continue;
+            }
+            if (line.size() == 1) {
+                // a single character wider than span stays alone on its line.
+                continue;
+            }
+            wrapAt(x);
+            if (wordLength == line.size()) {
+                // word starting at line beginning is too long: break it before current character.
+                LineLayout next = newLine(index);
+                line.moveTailTo(1, next);
+                line = next;
+                wordLength = 1;
+            } else {
+                // move whole word to next line.
+                LineLayout next = newLine(index - wordLength + 1);
+                line.moveTailTo(wordLength, next);
+                line = next;
+            }
+            x = x0 + line.xAt(line.size());
+        }
+    }
+
+    // an overflow check at given x passed (no wrapping happened).
+    public void fitAt(int x) {
+        minSpan = Math.max(minSpan, x);
+    }
+
+    // an overflow check at given x failed (wrapping happened).
+    public void wrapAt(int x) {
+        maxSpan = Math.min(maxSpan, x);
+    }
+
+    // whether cached result is the one a fresh layout with given span and font size would produce.
+    public boolean isValidFor(int span, int fontSize) {
+        return this.fontSize == fontSize && span >= minSpan && span < maxSpan;
+    }
+
+    // whether result laid out with current font size stays valid for given span once every width is scaled by
+    // to / from, margin x0 (left of first character) is not scaled.
+    public boolean isValidScaledFor(int span, int to, int x0) {
+        long available = (long) (span - x0) * fontSize;
+        return (long) (minSpan - x0) * to <= available
+                && (maxSpan == Integer.MAX_VALUE || available < (long) (maxSpan - x0) * to);
+    }
+
+    // scale layout to a new font size whose widths are exact multiples of current ones.
+    public void scale(int to, int x0) {
+        for (int i = 0; i < lineCount; i += 1) {
+            lines.get(i).scale(fontSize, to);
+        }
+        minSpan = x0 + (int) ((long) (minSpan - x0) * to / fontSize);
+        if (maxSpan != Integer.MAX_VALUE) {
+            maxSpan = x0 + (int) ((long) (maxSpan - x0) * to / fontSize);
+        }
+        fontSize = to;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public LineLayout getLine(int i) {
+        return lines.get(i);
+    }
+
+    // put views of all characters in order into given list, null for characters of lines not mounted.
+    public void collectViews(List<Object> views) {
+        for (int i = 0; i < lineCount; i += 1) {
+            LineLayout line = lines.get(i);
+            for (int j = 0; j < line.size(); j += 1) {
+                views.add(line.viewAt(j));
+            }
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public boolean isContinued() {
+        return continued;
+    }
+
+    public void setContinued(boolean continued) {
+        this.continued = continued;
+    }
+
+    // characters from the start of this paragraph to the start of the next one (to the end of content for the last
+    // one): its newline and the lines of a fold hidden below it are included.
+    public long getExtent() {
+        return extent;
+    }
+
+    public void setExtent(long extent) {
+        this.extent = extent;
+    }
+
+    // whether this paragraph begins a logical line, i.e. is not a segment following another one.
+    public boolean isLogicalStart() {
+        return logicalStart;
+    }
+
+    public void setLogicalStart(boolean logicalStart) {
+        this.logicalStart = logicalStart;
+    }
+
+    // lexer state at the start of this paragraph, kept by Highlighter.
+    public int getState() {
+        return state;
+    }
+
+    public void setState(int state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,98 @@
+package component;
+
+import javafx.application.Platform;
+
+/**
+ *  Paster: insert a long text (e.g. a paste of tens of MB) without blocking the JavaFX application thread.
+ *    - characters are copied into chunks on a background thread (see TextBuffer.Prepared), STEP at a time,
+ *      progress is reported after each step and cancel() is honoured between steps.
+ *    - the prepared chunks are inserted in one step on the JavaFX application thread, so content never holds
+ *      part of the text and undo / saving see the paste as a whole.
+ *    - the window keeps accepting input meanwhile: edits before the insertion offset move it along, like a cursor.
+ *  progress, end and cancellation are delivered to listener on the JavaFX application thread.
+ */
+public class Paster implements Runnable, TextBuffer.EditListener {
+    // texts shorter than this are inserted right away.
+    public static final int THRESHOLD = 1 << 20;
+    private static final int STEP = 1 << 20;
+
+    /**
+     *  receiver of paste progress, called on JavaFX application thread.
+     */
+    public interface Listener {
+        // fraction of the text prepared so far.
+        void onProgress(double fraction);
+
+        // text was inserted at given offset.
+        void onFinish(long offset, int length);
+
+        // paste was cancelled, content is unchanged.
+        void onCancel();
+    }
+
+    private TextBuffer textBuffer;
+    private TextBuffer.Prepared prepared;
+    private Listener listener;
+    private long offset;
+    private Thread thread;
+    private volatile boolean cancelled;
+
+    public Paster(TextBuffer textBuffer, String text, long offset, Listener listener) {
+        this.textBuffer = textBuffer;
+        this.prepared = textBuffer.prepare(text);
+        this.offset = offset;
+        this.listener = listener;
+    }
+
+    public void start() {
+        textBuffer.addEditListener(this);
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop preparing, content is left unchanged (called on JavaFX application thread).
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        while (!cancelled && prepared.filled() < prepared.length()) {
+            prepared.fill(STEP);
+            double fraction = (double) prepared.filled() / prepared.length();
+            Platform.runLater(() -> listener.onProgress(fraction));
+        }
+        Platform.runLater(this::finish);
+    }
+
+    // insert prepared text, or give its chunks back if paste was cancelled meanwhile.
+    private void finish() {
+        textBuffer.removeEditListener(this);
+        if (cancelled) {
+            prepared.discard();
+            listener.onCancel();
+            return;
+        }
+        textBuffer.insert(offset, prepared);
+        listener.onFinish(offset, prepared.length());
+    }
+
+
+    /**
+     *  group methods keeping the insertion offset on the same character while content is edited.
+     */
+    @Override
+    public void inserted(long offset, String text) {
+        if (offset <= this.offset) {
+            this.offset += text.length();
+        }
+    }
+
+    @Override
+    public void removed(long offset, long length) {
+        if (offset < this.offset) {
+            this.offset -= Math.min(length, this.offset - offset);
+        }
+    }
+}
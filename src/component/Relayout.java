@@ -0,0 +1,107 @@
+package component;
+
+import javafx.application.Platform;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Relayout: line breaks of paragraphs for a new span or font size, computed on a background thread.
+ *    - characters are read from a Snapshot taken when the relayout starts, so content can be edited meanwhile.
+ *    - results are new ParagraphLayout objects, the ones being shown are left untouched until RenderEngine takes
+ *      the results in a rendering pass, one swap per paragraph.
+ *    - a paragraph edited meanwhile is laid out again by RenderEngine anyway, so its result is never taken; a
+ *      relayout for a span or font size no longer current is cancelled and its results are dropped.
+ *  glyph widths come from metric tables of its own, filled on the background thread.
+ */
+public class Relayout implements Runnable {
+    private String fontType;
+    private int span;
+    private int fontSize;
+    private int x0;
+    private Snapshot snapshot;
+    private Runnable onFinish;
+
+    // paragraphs to lay out with their start and length when the snapshot was taken.
+    private ParagraphLayout[] paragraphs;
+    private long[] starts;
+    private int[] lengths;
+
+    // new layout of each paragraph, read on JavaFX application thread once finished.
+    private Map<ParagraphLayout, ParagraphLayout> results;
+    private boolean finished;
+    private volatile boolean cancelled;
+
+    // lay out given paragraphs of current content starting at given offsets, onFinish is called on JavaFX
+    // application thread.
+    public Relayout(TextBuffer textBuffer, List<ParagraphLayout> paragraphs, long[] starts, String fontType, int span,
+                    int fontSize, int x0, Runnable onFinish) {
+        this.fontType = fontType;
+        this.span = span;
+        this.fontSize = fontSize;
+        this.x0 = x0;
+        this.onFinish = onFinish;
+        this.paragraphs = paragraphs.toArray(new ParagraphLayout[0]);
+        this.starts = starts;
+        this.lengths = new int[this.paragraphs.length];
+        for (int i = 0; i < this.paragraphs.length; i += 1) {
+            lengths[i] = this.paragraphs[i].getLength();
+        }
+        this.snapshot = textBuffer.snapshot();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "Relayout");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop laying out, results are never delivered.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        Map<ParagraphLayout, ParagraphLayout> laidOut = new IdentityHashMap<>();
+        try {
+            GlyphMetrics metrics = new GlyphMetrics(fontType);
+            metrics.prefetch(fontSize);
+            for (int i = 0; i < paragraphs.length && !cancelled; i += 1) {
+                Snapshot.Reader reader = snapshot.reader(starts[i]);
+                ParagraphLayout paragraph = new ParagraphLayout();
+                paragraph.breakLines(reader::next, lengths[i], metrics, fontSize, span, x0);
+                laidOut.put(paragraphs[i], paragraph);
+            }
+        } finally {
+            snapshot.close();
+        }
+        Platform.runLater(() -> {
+            if (!cancelled) {
+                results = laidOut;
+                finished = true;
+                onFinish.run();
+            }
+        });
+    }
+
+    // whether this relayout is for given span and font size.
+    public boolean isFor(int span, int fontSize) {
+        return this.span == span && this.fontSize == fontSize;
+    }
+
+    // whether results have been delivered.
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // new layout of given paragraph if it was laid out and is valid for given span and font size, null otherwise.
+    public ParagraphLayout take(ParagraphLayout paragraph, int span, int fontSize) {
+        if (!finished) {
+            return null;
+        }
+        ParagraphLayout result = results.remove(paragraph);
+        return result != null && result.isValidFor(span, fontSize) ? result : null;
+    }
+}
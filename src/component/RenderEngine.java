@@ -1,10 +1,13 @@
 package component;
 
 import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.geometry.VPos;
 import javafx.scene.Group;
 import javafx.scene.control.ScrollBar;
@@ -12,29 +15,58 @@ import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.util.Duration;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 
 /**
  *   RenderEngine: rendering content to window:
  *     - text content
- *     - flickering cursor
+ *     - flickering cursor, plus extra cursors flickering with it
  *     - selection region
  *     - scroll bar
+ *     - syntax highlighting of visible lines (delegated to Highlighter)
+ *     - status area with line, word and character counts of content or of selected region
+ *     - folded lines (see Folds), a mark at the end of the line they are hidden below
+ *     - misspelled words in window underlined, once a SpellChecker is set
  */
 public class RenderEngine {
     private static final String fontType = "Verdana";
     private static final int INIT_FONT_SIZE = 15;
-    private static final int X_INIT = 6;
+    private static final int MIN_FONT_SIZE = 10;
+    private static final int ZOOM_STEP = 5;
+    // x coordinate every line starts at, also used by headless tools laying out paragraphs (see cli.AllocBudget).
+    public static final int X_INIT = 6;
     private static final VPos POS = VPos.TOP;
+    private static final int POOL_LIMIT = 4096;
+    private static final int STATUS_FONT_SIZE = 12;
+    private static final String[] LATIN1 = new String[256];
+    private static final String FOLD_MARK = " \u2026";
+    // a logical line longer than SEGMENT characters is laid out in segments of SEGMENT characters. once laid out,
+    // a segment is ended at a segment boundary of the last pass when at least MIN_SEGMENT characters long, so the
+    // segments following an edit are matched again, and at MAX_SEGMENT characters at most.
+    private static final int SEGMENT = 1 << 14;
+    private static final int MIN_SEGMENT = SEGMENT / 4;
+    private static final int MAX_SEGMENT = SEGMENT * 2;
+    // once content holds ASYNC_LAYOUT characters, paragraphs left unchanged by a span or font size change keep their
+    // old line breaks until a Relayout has computed new ones in the background.
+    private static final long ASYNC_LAYOUT = 1 << 20;
+
+    static {
+        for (int c = 0; c < LATIN1.length; c += 1) {
+            LATIN1[c] = String.valueOf((char) c);
+        }
+    }
 
     private TextBuffer textBuffer;
+    private Highlighter highlighter;
+    private GlyphMetrics metrics;
     private int fontSize;
     private int span;
     private int lineHeight;
@@ -45,33 +77,81 @@ public class RenderEngine {
 
     private boolean isVisiable;
     private Rectangle cursor;
-    private Text cursorPos;
+    private Text status;
+    private List<Rectangle> extraCursors;
+    private int extraCursorCount;
+    private int[] extraLines;
+    private int cursorLine;
+    private int topLine;
 
     private List<Rectangle> renderPieces;
     private int renderFlag;
-    private double x_start, y_start;
-    private boolean reversed;
-
-    private int x_pos;
-    private int y_pos;
-
-    private Deque<Text> queue;
-    private Deque<Object> auxQueue;
 
-    public RenderEngine(TextBuffer textBuffer, double span, Group Root, Group root, ScrollBar scrollBar, double windowHeight) {
+    private LayoutTree paragraphs;
+    private boolean layoutAll;
+    // paragraphs laid out by current pass in order, and whether the last one goes on in the next one.
+    private List<ParagraphLayout> laidParagraphs;
+    private boolean continuing;
+    // paragraphs of last pass from the first one of current pass on with their start offsets then, loaded from
+    // the LayoutTree as the pass goes (see previousAt).
+    private List<ParagraphLayout> previousParagraphs;
+    private long[] previousStarts;
+    private ParagraphLayout nextPrevious;
+    private long nextPreviousStart;
+    private int previousIndex;
+    private int boundaryIndex;
+    private Deque<Text> freeViews;
+    // lines mounted in window from top line on, with their start offsets.
+    private List<LineLayout> mountedLines;
+    private long[] mountedStarts;
+    private int mountPass;
+    private List<ParagraphLayout> staleParagraphs;
+    private Relayout relayout;
+
+    private Folds folds;
+    private int[] foldHeads;
+    private int foldHeadCount;
+    private List<Text> foldMarks;
+
+    private SpellChecker spellChecker;
+    private List<Rectangle> underlines;
+
+    private boolean updateRequested;
+    private AnimationTimer frameTimer;
+
+    public RenderEngine(TextBuffer textBuffer, Highlighter highlighter, double span, Group Root, Group root, ScrollBar scrollBar, double windowHeight) {
         this.textBuffer = textBuffer;
+        this.highlighter = highlighter;
+        this.metrics = new GlyphMetrics(fontType);
         this.fontSize = INIT_FONT_SIZE;
         this.span = round(span);
         this.Root = Root;
         this.root = root;
         this.renderPieces = new ArrayList<>();
+        this.paragraphs = new LayoutTree();
+        this.laidParagraphs = new ArrayList<>();
+        this.previousParagraphs = new ArrayList<>();
+        this.previousStarts = new long[64];
+        this.freeViews = new ArrayDeque<>();
+        this.extraCursors = new ArrayList<>();
+        this.extraLines = new int[16];
+        this.mountedLines = new ArrayList<>();
+        this.mountedStarts = new long[64];
+        this.staleParagraphs = new ArrayList<>();
+        this.folds = new Folds(textBuffer);
+        this.foldHeads = new int[16];
+        this.foldMarks = new ArrayList<>();
+        this.underlines = new ArrayList<>();
+        initFrameTimer();
         initCursor();
+        initStatus();
         updateLineHeight();
         updateCursor();
 
         this.scrollBar = scrollBar;
         this.windowHeight = windowHeight;
 
+        layoutAll = true;
         update();
     }
 
@@ -107,37 +187,158 @@ public class RenderEngine {
         timeline.play();
     }
 
+    // status text is kept in the window root, so it stays at the bottom while content scrolls.
+    private void initStatus() {
+        status = new Text();
+        status.setTextOrigin(VPos.BOTTOM);
+        status.setFont(metrics.font(STATUS_FONT_SIZE));
+        status.setFill(Color.GRAY);
+        Root.getChildren().add(status);
+    }
+
+    // show statistics of selected region while it is rendered, of whole content otherwise.
+    // counts are kept by TextBuffer, so no content is scanned here.
+    private void updateStatus() {
+        TextStats stats;
+        if (renderFlag > 0) {
+            stats = textBuffer.getStats(textBuffer.getSelectionStart(), textBuffer.getSelectionEnd());
+            status.setText("Selected  " + stats);
+        } else {
+            stats = textBuffer.getStats();
+            status.setText(stats.toString());
+        }
+        status.setX(Math.max(X_INIT, span - status.getLayoutBounds().getWidth()));
+        status.setY(windowHeight);
+    }
+
+    // timer running only while a rendering pass is pending, performs at most one pass per frame.
+    private void initFrameTimer() {
+        frameTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                frameTimer.stop();
+                updateRequested = false;
+                update();
+            }
+        };
+    }
+
     // update cursor height to keep consistent with line height.
     private void updateCursor() {
         cursor.setHeight(lineHeight);
+        for (Rectangle extra : extraCursors) {
+            extra.setHeight(lineHeight);
+        }
+    }
+
+    // take next rectangle for an extra cursor of current pass, rectangles of last pass are reused.
+    private Rectangle acquireExtraCursor() {
+        if (extraCursorCount == extraCursors.size()) {
+            Rectangle extra = new Rectangle();
+            extra.setWidth(cursor.getWidth());
+            extra.setHeight(lineHeight);
+            extra.fillProperty().bind(cursor.fillProperty());
+            root.getChildren().add(extra);
+            extraCursors.add(extra);
+            if (extraLines.length < extraCursors.size()) {
+                extraLines = Arrays.copyOf(extraLines, extraLines.length * 2);
+            }
+        }
+        Rectangle extra = extraCursors.get(extraCursorCount);
+        extra.setVisible(true);
+        extraCursorCount += 1;
+        return extra;
+    }
+
+    // hide rectangles of extra cursors left unused by a rendering pass.
+    private void trimExtraCursors() {
+        for (int i = extraCursorCount; i < extraCursors.size(); i += 1) {
+            extraCursors.get(i).setVisible(false);
+        }
     }
 
     // set text attributes(x coordinate, y coordinate, font size) dynamically
-    private void setText(Text text, int x_pos, int y_pos) {
-        text.setTextOrigin(POS);
-        text.setFont(new Font(fontType, fontSize));
+    private void setText(Object view, int x_pos, int y_pos, int fontSize) {
+        Text text = (Text) view;
+        text.setFont(metrics.font(fontSize));
         text.setX(x_pos);
         text.setY(y_pos);
-        text.toFront();
-        if (text == cursorPos) {
-            cursor.setX(x_pos + round(text.getLayoutBounds().getWidth())+1);
-            cursor.setY(y_pos);
+    }
+
+    // take a text object showing given character, released ones are reused before new ones are created.
+    private Text acquireView(char c) {
+        Text text = freeViews.pollFirst();
+        if (text == null) {
+            text = new Text();
+            text.setTextOrigin(POS);
+            root.getChildren().add(text);
+        } else {
+            text.setVisible(true);
+        }
+        text.setText(c < LATIN1.length ? LATIN1[c] : String.valueOf(c));
+        return text;
+    }
+
+    // give text objects of mounted lines of a paragraph back for reuse.
+    private void releaseViews(ParagraphLayout paragraph) {
+        for (int i = paragraph.getLineCount() - 1; i >= 0; i -= 1) {
+            releaseLine(paragraph.getLine(i));
         }
     }
 
-    // update line height triggered by font size changing (key events).
+    // give text objects of a mounted line back for reuse, in reverse so they are taken again in the same order.
+    private void releaseLine(LineLayout line) {
+        if (!line.isMounted()) {
+            return;
+        }
+        for (int j = line.size() - 1; j >= 0; j -= 1) {
+            freeViews.addFirst((Text) line.viewAt(j));
+        }
+        line.unmount();
+    }
+
+    // hide text objects left unused by a rendering pass, dropping them from window beyond the pool limit.
+    private void trimFreeViews() {
+        for (Text text : freeViews) {
+            text.setVisible(false);
+        }
+        if (freeViews.size() > POOL_LIMIT) {
+            List<Text> dropped = new ArrayList<>();
+            while (freeViews.size() > POOL_LIMIT) {
+                dropped.add(freeViews.pollLast());
+            }
+            root.getChildren().removeAll(new HashSet<>(dropped));
+        }
+    }
+
+    // update line height triggered by font size changing (key events), looked up from metric tables.
     private void updateLineHeight() {
-        Text text = new Text("AM");
-        text.setFont(new Font(fontType, fontSize));
-        lineHeight = round(text.getLayoutBounds().getHeight());
+        lineHeight = metrics.lineHeight(fontSize);
     }
 
     // set updated font size.
+    // metric tables of neighbouring zoom steps are filled once current frame is rendered, so next zoom
+    // neither measures glyphs nor creates fonts.
     public void setFontSize(int fontSize) {
         this.fontSize = fontSize;
         updateLineHeight();
         updateCursor();
+        layoutAll = true;
         update();
+        Platform.runLater(() -> {
+            metrics.prefetch(fontSize + ZOOM_STEP);
+            metrics.prefetch(Math.max(MIN_FONT_SIZE, fontSize - ZOOM_STEP));
+        });
+    }
+
+    // zoom in by one step.
+    public void zoomIn() {
+        setFontSize(fontSize + ZOOM_STEP);
+    }
+
+    // zoom out by one step, font size is at least MIN_FONT_SIZE.
+    public void zoomOut() {
+        setFontSize(Math.max(MIN_FONT_SIZE, fontSize - ZOOM_STEP));
     }
 
     // get font size.
@@ -146,109 +347,235 @@ public class RenderEngine {
     }
 
     // set span taking scroll bar width, two-ends margin into consideration.
+    // window resizing fires many events per frame, so layout is deferred to next frame.
     public void setSpan(double span) {
         this.span = round(span);
-        update();
+        layoutAll = true;
+        requestUpdate();
     }
 
 
     /**
      *  group methods to handle scroll bar events:
-     *    - get and set scroll bar value.
-     *    - moving subroot(containing text and cursor) y position to show target content.
+     *    - scroll position is the visual line shown at window top, scroll bar value and range count lines,
+     *      so neither depends on pixel height of whole content.
+     *    - subroot(containing text and cursor) stays in place, only lines in window are mounted with views
+     *      placed relative to window top, so scrolling and going to a line only touch lines being shown.
      */
-    // get content height for judge existence validity of scroll bar.
-    private int getTextHeight() {
-        return lineHeight * (textBuffer.getMaxLine() - 1);
-    }
-
     // set window height triggered by window resizing event
-    // window height attribute also used for  judge existence validity of scroll bar.
+    // window height attribute also used for judge existence validity of scroll bar.
     public void setWindowHeight(double windowHeight) {
         this.windowHeight = windowHeight;
     }
 
-    // set Y position of subroot to show target content.
-    public void setRootYPos(int y) {
-        root.setLayoutY(y);
+    // number of lines fully shown in window.
+    private int getWindowLines() {
+        return Math.max(1, (int) (windowHeight / lineHeight));
+    }
+
+    // largest possible window top line.
+    private int getMaxTopLine() {
+        return Math.max(0, paragraphs.lines() - getWindowLines());
     }
 
-    // update scroll bar maxValue to be the difference between text height and window height if
-    // scroll bar should be existent.
+    // scroll so that given visual line (counted from 0) is at window top, triggered by scroll bar events.
+    public void scrollTo(int line) {
+        line = Math.max(0, Math.min(line, getMaxTopLine()));
+        if (line == topLine) {
+            return;
+        }
+        topLine = line;
+        showWindow();
+    }
+
+    // apply highlighting styles to lines currently shown in window.
+    public void highlightVisible() {
+        highlighter.paint(paragraphs, topLine, topLine + getWindowLines());
+    }
+
+    // update scroll bar range to the number of lines content can be scrolled by, if scroll bar should be existent.
     private void updateScrollBarSize() {
-        int textHeight = getTextHeight();
-        if (textHeight <= windowHeight) {
+        int range = getMaxTopLine();
+        if (range == 0) {
             Root.getChildren().remove(scrollBar);
         } else {
             if (!Root.getChildren().contains(scrollBar)) {
                 Root.getChildren().add(scrollBar);
             }
-            double range = textHeight - windowHeight;
             scrollBar.setMax(range);
-            scrollBar.setVisibleAmount(10);
+            scrollBar.setVisibleAmount(getWindowLines());
+            scrollBar.setBlockIncrement(getWindowLines());
         }
     }
 
-    // get value of scroll bar(round to int).
-    private int getScrollVal() {
-        return Math.abs((int)scrollBar.getValue());
-    }
-
-    // core function to satisfying subroot Y position adjustment for two cases:
+    // core function to satisfying window top line adjustment for two cases:
     //  - content deletion.
     //  - cursor(invisible) position changing.
     private void updateRootPos() {
-        if (!Root.getChildren().contains(scrollBar)) {
-            scrollBar.setValue(0);
-            setRootYPos(0);
-            return;
+        int windowLines = getWindowLines();
+        if (cursorLine < topLine) {
+            topLine = cursorLine;
+        } else if (cursorLine >= topLine + windowLines) {
+            topLine = cursorLine - windowLines + 1;
         }
+        topLine = Math.max(0, Math.min(topLine, getMaxTopLine()));
+        scrollBar.setValue(topLine);
+    }
 
-        int sbUpper = getScrollVal();
-        int sbLower = sbUpper + round(windowHeight);
+    // show lines of window at current top line: views, cursors, selection, highlighting and spelling markers.
+    private void showWindow() {
+        mountWindow();
+        placeCursorsInWindow();
+        placeFoldMarks();
+        if (renderFlag > 0) {
+            drawSelection();
+        }
+        highlightVisible();
+        if (spellChecker != null) {
+            spellChecker.show(getWindowRanges());
+            drawUnderlines();
+        }
+    }
 
-        int textHeight = getTextHeight();
-        if (textHeight < sbLower) {
-            setRootYPos(-(sbUpper - (sbLower - textHeight)));
-            scrollBar.setValue(scrollBar.getMax());
+    // content ranges shown in window as {start0, end0, ...}, lines following each other form one range.
+    private long[] getWindowRanges() {
+        long[] ranges = new long[8];
+        int count = 0;
+        for (int i = 0; i < mountedLines.size(); i += 1) {
+            long start = mountedStarts[i];
+            long end = start + mountedLines.get(i).size();
+            if (count > 0 && start <= ranges[count - 1] + 1) {
+                ranges[count - 1] = end;
+                continue;
+            }
+            if (count == ranges.length) {
+                ranges = Arrays.copyOf(ranges, count * 2);
+            }
+            ranges[count] = start;
+            ranges[count + 1] = end;
+            count += 2;
         }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    // mount lines in window (one more for the partly shown bottom line), lines mounted before and now out of
+    // window give their views back. lines kept mounted are only moved if their position changed.
+    // a line is drawn with the font size its paragraph was laid out with, older than current one while stale.
+    // paragraphs in window are walked in the LayoutTree, fold heads among them are recorded for their marks.
+    private void mountWindow() {
+        mountPass += 1;
+        int last = Math.min(paragraphs.lines(), topLine + getWindowLines() + 1);
+        List<LineLayout> mounted = new ArrayList<>(Math.max(0, last - topLine));
+        if (mountedStarts.length < last - topLine) {
+            mountedStarts = new long[(last - topLine) * 2];
+        }
+        foldHeadCount = 0;
+        ParagraphLayout paragraph = paragraphs.findLine(topLine);
+        long start = paragraphs.getFoundStart();
+        int first = paragraphs.getFoundLine();
+        while (paragraph != null && first < last) {
+            int count = paragraph.getLineCount();
+            for (int j = Math.max(0, topLine - first); j < count && first + j < last; j += 1) {
+                LineLayout line = paragraph.getLine(j);
+                mountedStarts[mounted.size()] = start + line.getStart();
+                mountLine(line, start + line.getStart(), (first + j - topLine) * lineHeight, paragraph.getFontSize());
+                line.setMountPass(mountPass);
+                mounted.add(line);
+            }
+            if (first + count - 1 >= topLine && first + count - 1 < last && isFoldHead(paragraph)) {
+                putFoldHead(first + count - 1);
+            }
+            first += count;
+            start += paragraph.getExtent();
+            paragraph = paragraphs.next(paragraph);
+        }
+        for (LineLayout line : mountedLines) {
+            if (line.getMountPass() != mountPass) {
+                releaseLine(line);
+            }
+        }
+        mountedLines = mounted;
+        trimFreeViews();
+    }
 
-        int cursorYUPos = round(cursor.getY());
-        int cursorYDPos = cursorYUPos + round(cursor.getHeight());
-        if (cursorYUPos >= sbUpper && cursorYDPos <= sbLower) {
+    // place views of line starting at given offset at given y coordinate.
+    private void mountLine(LineLayout line, long start, int y, int fontSize) {
+        if (line.isMounted()) {
+            if (line.getMountedY() != y) {
+                for (int j = 0; j < line.size(); j += 1) {
+                    ((Text) line.viewAt(j)).setY(y);
+                }
+                line.mount(y);
+            }
             return;
         }
-        if (cursorYUPos < sbUpper) {
-            int mov = sbUpper - cursorYUPos;
-            setRootYPos(-(sbUpper - mov));
-            scrollBar.setValue(sbUpper - mov);
-        } else {
-            int mov = cursorYDPos - sbLower;
-            setRootYPos(-(sbUpper + mov));
-            scrollBar.setValue(sbUpper + mov);
+        String chars = textBuffer.getText(start, start + line.size());
+        for (int j = 0; j < line.size(); j += 1) {
+            Text text = acquireView(chars.charAt(j));
+            setText(text, X_INIT + line.xAt(j), y, fontSize);
+            line.setView(j, text);
         }
+        line.mount(y);
+    }
 
+    // go to given logical line (counted from 1): cursor moves to its start, line is shown in the middle of
+    // window. paragraphs beginning a logical line are counted in the LayoutTree, so no content is traversed.
+    // folded lines are not indexed: the number is mapped to shown lines, a fold hiding the line is opened first.
+    public void goToLine(int lineNo) {
+        int foldCount = folds.size();
+        lineNo = folds.visibleLine(lineNo);
+        if (folds.size() != foldCount) {
+            update();
+        }
+        if (paragraphs.isEmpty()) {
+            return;
+        }
+        paragraphs.findLogical(Math.max(0, Math.min(lineNo, paragraphs.logicalLines()) - 1));
+        textBuffer.setCursor(paragraphs.getFoundStart());
+        cursorLine = paragraphs.getFoundLine();
+        cursor.setX(X_INIT);
+        topLine = Math.max(0, Math.min(cursorLine - getWindowLines() / 2, getMaxTopLine()));
+        scrollBar.setValue(topLine);
+        showWindow();
     }
 
 
     /**
      *  group methods to support cursor movement between lines requires by UP/DOWN arrow keys events.
      */
-    // using cursor y coordinate to locate line number.
+    // using visual line of cursor to locate line number.
     private int getCurrentLineByCursor() {
-        return Math.min((int)cursor.getY() / lineHeight + 1, textBuffer.getMaxLine()-1);
+        return Math.min(cursorLine + 1, getMaxLine()-1);
+    }
+
+    // return max line number(larger than real line number by one).
+    private int getMaxLine() {
+        return paragraphs.lines() + 1;
+    }
+
+    // number of the last line starting at or before given offset (line numbers start from 1).
+    private int getLineOf(long offset) {
+        ParagraphLayout paragraph = paragraphs.find(offset);
+        if (paragraph == null) {
+            return 1;
+        }
+        long index = offset - paragraphs.getFoundStart();
+        int i = 0;
+        while (i + 1 < paragraph.getLineCount() && paragraph.getLine(i + 1).getStart() <= index) {
+            i += 1;
+        }
+        return paragraphs.getFoundLine() + i + 1;
     }
 
     // moving cursor to next line.
     public void jumpToNextLine() {
         int currentLineNo = getCurrentLineByCursor();
-        if (currentLineNo == textBuffer.getMaxLine()-1) {
+        if (currentLineNo == getMaxLine()-1) {
             textBuffer.setCurToTail();
             return;
         }
         int curX = round(cursor.getX());
-        textBuffer.setCurToTargetNo(currentLineNo+1);
-        lineJumpHelper(curX);
+        lineJumpHelper(currentLineNo+1, curX);
     }
 
     // move cursor to previous line.
@@ -259,29 +586,60 @@ public class RenderEngine {
             return;
         }
         int curX = round(cursor.getX());
-        textBuffer.setCurToTargetNo(currentLineNo-1);
-        lineJumpHelper(curX);
+        lineJumpHelper(currentLineNo-1, curX);
     }
 
-    // method to locate cursor to position in-line compared to target X coordinate.
-    private void lineJumpHelper(int curX) {
-        int accX = 0;
-        while (true) {
-            if (textBuffer.isEnd()) {
-                textBuffer.decreCurrent(false);
-                return;
-            }
-            if (textBuffer.currentPos_current().getText().equals("\n")) {
-                textBuffer.decreCurrent(false);
-                return;
-            }
-            Text text = textBuffer.currentPos_current();
-            accX += round(text.getLayoutBounds().getWidth());
-            if (accX > curX) {
-                textBuffer.decreCurrent(false);
-                return;
-            }
-            textBuffer.increCurrent(false);
+    // method to locate cursor to position in-line compared to target X coordinate:
+    // binary search on cumulative advances of target line instead of measuring character by character.
+    private void lineJumpHelper(int lineNo, int curX) {
+        textBuffer.setCursor(offsetAt(lineNo, curX));
+    }
+
+    // offset of the position in given line nearest to X coordinate.
+    private long offsetAt(int lineNo, int curX) {
+        ParagraphLayout paragraph = paragraphs.findLine(lineNo - 1);
+        LineLayout line = paragraph.getLine(lineNo - 1 - paragraphs.getFoundLine());
+        return paragraphs.getFoundStart() + line.getStart() + line.columnAt(curX);
+    }
+
+    // X coordinate a cursor at given offset of given line is drawn at.
+    private int xOf(int lineNo, long offset) {
+        ParagraphLayout paragraph = paragraphs.findLine(lineNo - 1);
+        LineLayout line = paragraph.getLine(lineNo - 1 - paragraphs.getFoundLine());
+        long lineStart = paragraphs.getFoundStart() + line.getStart();
+        int column = (int) Math.min(offset - lineStart, line.size());
+        return X_INIT + line.xAt(column) + 1;
+    }
+
+
+    /**
+     *  group methods to create extra cursors, typing and deletion then happen at every cursor.
+     */
+    // add a cursor at target position (X, Y).
+    public void addCursorAt(double x, double y) {
+        int targetLineNo = getTargetLineByPos(y);
+        if (targetLineNo >= getMaxLine()) {
+            textBuffer.addCursor(textBuffer.getSize());
+            return;
+        }
+        textBuffer.addCursor(offsetAt(targetLineNo, round(x)));
+    }
+
+    // add a cursor on the line below the last cursor, in the same column.
+    public void addCursorBelow() {
+        long last = textBuffer.getLastCursor();
+        int lineNo = getLineOf(last);
+        if (lineNo + 1 < getMaxLine()) {
+            textBuffer.addCursor(offsetAt(lineNo + 1, xOf(lineNo, last)));
+        }
+    }
+
+    // add a cursor on the line above the first cursor, in the same column.
+    public void addCursorAbove() {
+        long first = textBuffer.getFirstCursor();
+        int lineNo = getLineOf(first);
+        if (lineNo > 1) {
+            textBuffer.addCursor(offsetAt(lineNo - 1, xOf(lineNo, first)));
         }
     }
 
@@ -289,9 +647,9 @@ public class RenderEngine {
     /**
      *  group methods to support cursor movement jumping between lines required by mouse clicking event.
      */
-    // using y coordinate to location target line.
+    // using y coordinate in window to location target line.
     private int getTargetLineByPos(double y) {
-        return (int)y / lineHeight + 1;
+        return topLine + (int)y / lineHeight + 1;
     }
 
     // move cursor to target position (X, Y).
@@ -300,13 +658,12 @@ public class RenderEngine {
             root.getChildren().add(cursor);
         }
 
-        int targetLineNo = getTargetLineByPos(y+getScrollVal());
-        if (targetLineNo >= textBuffer.getMaxLine()) {
+        int targetLineNo = getTargetLineByPos(y);
+        if (targetLineNo >= getMaxLine()) {
             textBuffer.setCurToTail();
             return;
         }
-        textBuffer.setCurToTargetNo(targetLineNo);
-        lineJumpHelper(round(x));
+        lineJumpHelper(targetLineNo, round(x));
     }
 
 
@@ -316,54 +673,22 @@ public class RenderEngine {
     // helper method for setting start/end nodes corresponding to selection region border classified by given type variable.
     //   - true -> start node
     //   - false -> end node
-    private void selectHelper(int curX, boolean type) {
-        int accX = 0;
-        while (true) {
-            if (textBuffer.isEnd()) {
-                textBuffer.decreCurrent(false);
-                selectByType(type);
-                return;
-            }
-            if (textBuffer.currentPos_current().getText().equals("\n")) {
-                textBuffer.decreCurrent(false);
-                selectByType(type);
-                return;
-            }
-            Text text = textBuffer.currentPos_current();
-            accX += round(text.getLayoutBounds().getWidth());
-            if (accX > curX) {
-                textBuffer.decreCurrent(false);
-                selectByType(type);
-                return;
-            }
-            textBuffer.increCurrent(false);
-        }
+    private void selectHelper(int lineNo, int curX, boolean type) {
+        lineJumpHelper(lineNo, curX);
+        selectByType(type);
     }
 
     // client method for end-nodes saving.
-    // determine selection direction resulting setting flag value(reversed).
     public void selectEnd(double x, double y, boolean type) {
         root.getChildren().remove(cursor);
 
-        if (type) {
-            x_start = x;
-            y_start = y;
-        } else {
-            if (x >= x_start || y >= y_start) {
-                reversed = false;
-            } else {
-                reversed = true;
-            }
-        }
-
-        int targetLineNo = getTargetLineByPos(y+getScrollVal());
-        if (targetLineNo >= textBuffer.getMaxLine()) {
+        int targetLineNo = getTargetLineByPos(y);
+        if (targetLineNo >= getMaxLine()) {
             textBuffer.setCurToTail();
             selectByType(type);
             return;
         }
-        textBuffer.setCurToTargetNo(targetLineNo);
-        selectHelper(round(x), type);
+        selectHelper(targetLineNo, round(x), type);
     }
 
     // call textBuffer supported method to save corresponding node.
@@ -375,31 +700,36 @@ public class RenderEngine {
         }
     }
 
-    // iterative from start node to end node, add each text fragment to the collection object.
+    // render selected region, kept while window scrolls until next rendering pass.
     public void renderSelectedRegion() {
-        textBuffer.renderInit();
         renderFlag = 2;
-        Text text;
+        drawSelection();
+        updateStatus();
+    }
+
+    // cover selected part of each visual line in window with one rectangle, using cumulative advances of the line.
+    private void drawSelection() {
         root.getChildren().removeAll(renderPieces);
         renderPieces.clear();
-        if (!reversed) {
-            while ((text = textBuffer.getTextToRender()) != null) {
-              addRenderPieces(text);
-            }
-        } else {
-            while ((text = textBuffer.getPreToRender()) != null) {
-                addRenderPieces(text);
+        long start = textBuffer.getSelectionStart();
+        long end = textBuffer.getSelectionEnd();
+        for (int i = 0; i < mountedLines.size(); i += 1) {
+            LineLayout line = mountedLines.get(i);
+            long lineStart = mountedStarts[i];
+            int from = (int) Math.max(0, start - lineStart);
+            int to = (int) Math.min(line.size(), end - lineStart);
+            if (from < to) {
+                addRenderPieces(X_INIT + line.xAt(from), i * lineHeight, line.xAt(to) - line.xAt(from));
             }
         }
-
     }
 
     // create rectangle using as background of selected region.
-    private void addRenderPieces(Text text) {
+    private void addRenderPieces(int x, int y, int width) {
         Rectangle rectangle = new Rectangle();
-        rectangle.setX(text.getX());
-        rectangle.setY(text.getY());
-        rectangle.setWidth(text.getLayoutBounds().getWidth());
+        rectangle.setX(x);
+        rectangle.setY(y);
+        rectangle.setWidth(width);
         rectangle.setHeight(lineHeight);
         rectangle.setFill(Color.VIOLET);
         rectangle.toBack();
@@ -408,6 +738,119 @@ public class RenderEngine {
     }
 
 
+    /**
+     *  group methods folding lines, rendering passes jump over folded lines (see Folds).
+     */
+    // fold lines of selected region below its first one while a region is shown, else the block below cursor line.
+    public void fold() {
+        if (renderFlag > 0) {
+            folds.foldLines(textBuffer.getSelectionStart(), textBuffer.getSelectionEnd());
+        } else {
+            folds.foldAt(textBuffer.getCursor());
+        }
+        update();
+    }
+
+    // open the fold below cursor line.
+    public void unfold() {
+        folds.unfoldAt(textBuffer.getCursor());
+        update();
+    }
+
+    // whether lines of a fold are hidden below given paragraph: its extent reaches past its newline.
+    private boolean isFoldHead(ParagraphLayout paragraph) {
+        return !paragraph.isContinued() && paragraph.getExtent() > paragraph.getLength() + 1;
+    }
+
+    // record that a fold is hidden below given visual line in window.
+    private void putFoldHead(int line) {
+        if (foldHeadCount == foldHeads.length) {
+            foldHeads = Arrays.copyOf(foldHeads, foldHeadCount * 2);
+        }
+        foldHeads[foldHeadCount++] = line;
+    }
+
+    // put a mark behind the last character of every fold head line in window.
+    private void placeFoldMarks() {
+        int used = 0;
+        for (int i = 0; i < foldHeadCount; i += 1) {
+            int line = foldHeads[i];
+            if (used == foldMarks.size()) {
+                Text mark = new Text(FOLD_MARK);
+                mark.setTextOrigin(POS);
+                mark.setFill(Color.GRAY);
+                root.getChildren().add(mark);
+                foldMarks.add(mark);
+            }
+            Text mark = foldMarks.get(used);
+            used += 1;
+            LineLayout layout = mountedLines.get(line - topLine);
+            mark.setFont(metrics.font(fontSize));
+            mark.setX(X_INIT + layout.xAt(layout.size()));
+            mark.setY((line - topLine) * lineHeight);
+            mark.setVisible(true);
+        }
+        for (int i = used; i < foldMarks.size(); i += 1) {
+            foldMarks.get(i).setVisible(false);
+        }
+    }
+
+
+    /**
+     *  group methods underlining misspelled words found by a SpellChecker.
+     */
+    public void setSpellChecker(SpellChecker spellChecker) {
+        this.spellChecker = spellChecker;
+        showWindow();
+    }
+
+    // underline the part of every marker lying on each visual line in window, rectangles are reused between calls.
+    public void drawUnderlines() {
+        int used = 0;
+        int count = mountedLines.size();
+        if (count > 0) {
+            long windowEnd = mountedStarts[count - 1] + mountedLines.get(count - 1).size();
+            for (int m = spellChecker.markerIndex(mountedStarts[0]);
+                 m < spellChecker.getMarkerCount() && spellChecker.getMarkerStart(m) < windowEnd; m += 1) {
+                long start = spellChecker.getMarkerStart(m);
+                long end = spellChecker.getMarkerEnd(m);
+                for (int i = 0; i < count; i += 1) {
+                    LineLayout line = mountedLines.get(i);
+                    long lineStart = mountedStarts[i];
+                    if (lineStart >= end) {
+                        break;
+                    }
+                    int from = (int) Math.max(0, start - lineStart);
+                    int to = (int) Math.min(line.size(), end - lineStart);
+                    if (from < to) {
+                        Rectangle underline = acquireUnderline(used);
+                        used += 1;
+                        underline.setX(X_INIT + line.xAt(from));
+                        underline.setY((i + 1) * lineHeight - 2);
+                        underline.setWidth(line.xAt(to) - line.xAt(from));
+                    }
+                }
+            }
+        }
+        for (int i = used; i < underlines.size(); i += 1) {
+            underlines.get(i).setVisible(false);
+        }
+    }
+
+    private Rectangle acquireUnderline(int i) {
+        if (i == underlines.size()) {
+            Rectangle underline = new Rectangle();
+            underline.setHeight(1.5);
+            underline.setFill(Color.RED);
+            root.getChildren().add(underline);
+            underlines.add(underline);
+        }
+        Rectangle underline = underlines.get(i);
+        underline.setVisible(true);
+        return underline;
+    }
+
+
     /**
      *  group methods associated with system clipboard.
      */
@@ -417,62 +860,77 @@ public class RenderEngine {
             System.out.println("Nothing is selected for copy operation.");
             return;
         }
-        StringBuffer sb = new StringBuffer();
-
-        textBuffer.renderInit();
-        Text text;
-        if (!reversed) {
-            while ((text = textBuffer.getTextToRender()) != null) {
-                sb.append(text.getText());
-            }
-        } else {
-            while ((text = textBuffer.getPreToRender()) != null) {
-                sb.append(text);
-            }
-            String reversedText = sb.toString();
-            sb = new StringBuffer();
-            for (int i = reversedText.length()-1; i >= 0; i -= 1) {
-                sb.append(reversedText.charAt(i));
-            }
-        }
+        String text = textBuffer.getText(textBuffer.getSelectionStart(), textBuffer.getSelectionEnd());
         Clipboard clipboard = Clipboard.getSystemClipboard();
         ClipboardContent content = new ClipboardContent();
-        content.putString(sb.toString());
+        content.putString(text);
         clipboard.setContent(content);
         System.out.println("Copy succeed.");
     }
 
-    // paste operation.
-    public Object[] doPaste() {
-        Clipboard clipboard = Clipboard.getSystemClipboard();
-        String content = clipboard.getString();
+    // paste operation: insert given clipboard text at cursor, return {length, end} of the pasted text.
+    // texts of Paster.THRESHOLD characters or more are pasted by a Paster instead.
+    public Object[] doPaste(String content) {
         if (content == null) {
             System.out.println("Nothing on clipboard.");
             return new Object[0];
         }
         Object[] eventInfo = new Object[2];
         eventInfo[0] = content.length();
-        for (int i = 0; i < content.length(); i += 1) {
-            textBuffer.add(new Text(String.valueOf(content.charAt(i))));
-        }
-        eventInfo[1] = textBuffer.getCurrentPosNode();
+        textBuffer.insert(textBuffer.getCursor(), content);
+        eventInfo[1] = textBuffer.getCursor();
 
         update();
         return eventInfo;
     }
 
+    // screen bounds of cursor, e.g. to pop up completions below it.
+    public Bounds getCursorBounds() {
+        return cursor.localToScreen(cursor.getBoundsInLocal());
+    }
+
 
     /**
      *  core method: rendering window with the current text content and cursor rectangle.
+     *  content is laid out paragraph by paragraph, paragraphs are indexed in a LayoutTree keeping their extents and
+     *  line counts summed, so a pass only lays out the region touched by edits (see TextBuffer) and folds made or
+     *  opened (see Folds) since last pass: from the paragraph before the region, paragraphs of last pass are matched
+     *  in order with current ones by start offset mapped across the edited region, and once behind the region a
+     *  paragraph of last pass starts where the next one does, it and the ones behind it are kept as they are.
+     *  the paragraphs laid out replace the ones of last pass they cover in the tree, the ones behind shift with the
+     *  totals of the tree. a matched paragraph keeps its cached layout if it has not been edited and current span
+     *  lies in the span interval of the cached line breaks, so its lines in window keep their text objects, moved
+     *  only when their position changed. line breaks are computed from glyph metrics alone, text objects are only
+     *  created for lines mounted in window once layout is done.
+     *  a paragraph not edited is skipped without reading its characters, and long logical lines are split into
+     *  segments (see SEGMENT), so a pass only reads the edited segment even inside a line of hundreds of MB.
+     *  a pass costs O(dirty paragraphs + window) plus O(log paragraphs) per cursor placed, whatever the size of
+     *  content. only a change of span or font size visits every paragraph outside folds: on large content (see
+     *  ASYNC_LAYOUT) unchanged paragraphs keep their old line breaks and a Relayout computes new ones from a
+     *  snapshot in the background, taken over by another such pass. scrolling (scrollTo) and going to a line
+     *  (goToLine) only query the tree and cost O(window + log paragraphs).
      */
     public void update() {
-        textBuffer.resetLineInfo();
-        textBuffer.resetTraversalMan();
-        x_pos = X_INIT;
-        y_pos = 0;
-        queue = new LinkedList<>();
-        auxQueue = new LinkedList<>();
-        cursorPos = null;
+        // a fold hiding a cursor is opened, so every cursor is on a shown line.
+        folds.openHolding(textBuffer.getCursor());
+        for (int i = 0; i < textBuffer.getExtraCursorCount(); i += 1) {
+            folds.openHolding(textBuffer.getExtraCursor(i));
+        }
+        long from = textBuffer.getEditedStart();
+        long limit = textBuffer.getEditedEnd();
+        if (from == -1) {
+            from = Long.MAX_VALUE;
+            limit = -1;
+        }
+        if (folds.getChangedStart() != -1) {
+            from = Math.min(from, folds.getChangedStart());
+            limit = Math.max(limit, folds.getChangedEnd());
+        }
+        folds.clearChanged();
+        if (layoutAll) {
+            from = 0;
+            limit = Long.MAX_VALUE;
+        }
 
         renderFlag = Math.max(renderFlag-1, -1);
         if (renderFlag == 0) {
@@ -480,75 +938,335 @@ public class RenderEngine {
             renderPieces.clear();
         }
 
-        Text text;
-        while ((text = textBuffer.advance()) != null) {
-            if (textBuffer.isCurrentPos()) {
-                cursorPos = text;
+        highlighter.beginPass();
+        staleParagraphs.clear();
+
+        if (from <= limit) {
+            layoutRegion(from, limit);
+        }
+        finishLayout();
+        if (layoutAll) {
+            layoutAll = false;
+            relayoutStale();
+        }
+    }
+
+    // merge text appended to the end of content by another process:
+    // only the last paragraph and the appended ones are laid out, like after any edit.
+    public void appendText(String s) {
+        appendText(s, -1);
+    }
+
+    // merge text read from the opened file, decoded unchanged from bytes starting at sourceStart (-1 if not).
+    public void appendText(String s, long sourceStart) {
+        textBuffer.appendTail(s, sourceStart);
+        update();
+    }
+
+    // request a rendering pass on next frame, several requests within one frame result in one pass.
+    private void requestUpdate() {
+        if (!updateRequested) {
+            updateRequested = true;
+            frameTimer.start();
+        }
+    }
+
+    // lay out paragraphs from the one holding the character before given offset until the content behind given
+    // limit is met again (see update), then put them in place of the paragraphs of last pass they cover.
+    private void layoutRegion(long from, long limit) {
+        ParagraphLayout first = paragraphs.find(Math.max(0, from - 1));
+        long start = first == null ? 0 : paragraphs.getFoundStart();
+        ParagraphLayout before = first == null ? null : paragraphs.previous(first);
+        previousParagraphs.clear();
+        previousIndex = 0;
+        nextPrevious = first;
+        nextPreviousStart = start;
+        laidParagraphs.clear();
+        continuing = before != null && before.isContinued();
+
+        textBuffer.setTraversalMan(start - 1);
+        if (!layoutRemaining(limit)) {
+            releasePrevious(Long.MAX_VALUE);
+        }
+
+        if (layoutAll) {
+            paragraphs.build(laidParagraphs);
+            return;
+        }
+        for (int i = 0; i < previousIndex; i += 1) {
+            paragraphs.remove(previousParagraphs.get(i));
+        }
+        ParagraphLayout pre = before;
+        for (ParagraphLayout paragraph : laidParagraphs) {
+            paragraphs.insertAfter(pre, paragraph);
+            pre = paragraph;
+        }
+    }
+
+    // lay out paragraphs following the traversal position, jumping over folded lines, until a paragraph of last
+    // pass starts behind given limit where the next one would. return whether it stopped there.
+    private boolean layoutRemaining(long limit) {
+        while (textBuffer.advance()) {
+            long start = textBuffer.getCurrentOffset();
+            if (start > limit && isResynced(start)) {
+                return true;
             }
-            if (x_pos == X_INIT) {
-                textBuffer.putLineNo_StartNode_mapping(textBuffer.getCurrentNode());
+            ParagraphLayout paragraph = layoutParagraph(start);
+            if (textBuffer.hasCurrent()) {
+                skipFold(textBuffer.getCurrentOffset() + 1);
             }
-            if (text.getText().equals("\n")) {
-                if (cursorPos == text) {
-                    cursor.setX(X_INIT);
-                    cursor.setY((textBuffer.getMaxLine() - 1) * lineHeight);
-                }
+            paragraph.setExtent(Math.min(textBuffer.getCurrentOffset() + 1, textBuffer.getSize()) - start);
+        }
+        return false;
+    }
 
-                x_pos = X_INIT;
-                y_pos += lineHeight;
-                queue.clear();
-                auxQueue.clear();
-            } else if (text.getText().equals(" ")) {
-                queue.clear();
-                auxQueue.clear();
-                setText(text, x_pos, y_pos);
-                x_pos += round(text.getLayoutBounds().getWidth());
-
-                if (cursorPos == text) {
-                    if (x_pos > span) {
-                        cursor.setX(span);
-                        cursor.setY(y_pos);
-                    } else {
-                        cursor.setX(x_pos+1);
-                        cursor.setY(y_pos);
-                    }
+    // whether a paragraph of last pass starts at given offset, which lies behind the edited region.
+    private boolean isResynced(long start) {
+        long previousStart = textBuffer.previousOffset(start);
+        releasePrevious(previousStart);
+        return previousAt(previousIndex) != null && previousStarts[previousIndex] == previousStart;
+    }
+
+    // move traversal position to the last newline of the fold starting at given offset, if there is one.
+    // paragraphs of last pass inside it are released once the next paragraph is matched.
+    private void skipFold(long from) {
+        long to = folds.hiddenEnd(from);
+        if (to != -1) {
+            textBuffer.setTraversalMan(to - 1);
+        }
+    }
+
+    // paragraph of last pass of given index in previousParagraphs, null if there is none. paragraphs are taken
+    // from the LayoutTree on first use, it is left unchanged until the pass is done.
+    private ParagraphLayout previousAt(int i) {
+        while (i >= previousParagraphs.size() && nextPrevious != null) {
+            int count = previousParagraphs.size();
+            if (count == previousStarts.length) {
+                previousStarts = Arrays.copyOf(previousStarts, count * 2);
+            }
+            previousStarts[count] = nextPreviousStart;
+            previousParagraphs.add(nextPrevious);
+            nextPreviousStart += nextPrevious.getExtent();
+            nextPrevious = paragraphs.next(nextPrevious);
+        }
+        return i < previousParagraphs.size() ? previousParagraphs.get(i) : null;
+    }
+
+    // release paragraphs of last pass starting (in old offsets) before given limit.
+    private void releasePrevious(long limit) {
+        while (previousAt(previousIndex) != null && previousStarts[previousIndex] < limit) {
+            releaseViews(previousParagraphs.get(previousIndex));
+            previousIndex += 1;
+        }
+    }
+
+    // lay out paragraph starting at given offset, traversal position ends at its newline, at its last character if
+    // the logical line goes on in the next segment, or at the end of content.
+    private ParagraphLayout layoutParagraph(long start) {
+        int length = 0;
+        boolean continued = false;
+        long end;
+        boolean edited = false;
+
+        ParagraphLayout paragraph = matchUnchanged(start);
+        if (paragraph != null) {
+            // same characters as in last pass.
+            length = paragraph.getLength();
+            continued = paragraph.isContinued();
+            end = continued ? start + length - 1 : start + length;
+            textBuffer.setTraversalMan(end);
+        } else {
+            // scan paragraph for its end.
+            boundaryIndex = previousIndex;
+            for (boolean more = textBuffer.hasCurrent(); more; more = textBuffer.advance()) {
+                if (textBuffer.current() == '\n') {
+                    break;
                 }
-            } else {
-                queue.addLast(text);
-                auxQueue.addLast(textBuffer.getCurrentNode());
-                setText(text, x_pos, y_pos);
-                x_pos += round(text.getLayoutBounds().getWidth());
-                if (x_pos > span) {
-                    if (round(queue.getFirst().getX()) == X_INIT) {
-                        text = queue.getLast();
-                        queue.clear();
-                        queue.addLast(text);
-                        textBuffer.putLineNo_StartNode_mapping(textBuffer.getCurrentNode());
-                        x_pos = X_INIT;
-                        y_pos += lineHeight;
-                        setText(text, x_pos, y_pos);
-                        x_pos += round(text.getLayoutBounds().getWidth());
-                    } else {
-                        x_pos = X_INIT;
-                        y_pos += lineHeight;
-                        for (Text t : queue) {
-                            setText(t, x_pos, y_pos);
-                            x_pos += round(t.getLayoutBounds().getWidth());
-                        }
-                        textBuffer.putLineNo_StartNode_mapping(auxQueue.getFirst());
-                        auxQueue.clear();
-                    }
+                length += 1;
+                if (length >= MIN_SEGMENT && isSegmentEnd(textBuffer.getCurrentOffset() + 1, length)) {
+                    continued = true;
+                    break;
                 }
             }
+            end = textBuffer.getCurrentOffset();
+            edited = textBuffer.isEdited(start, end);
+            // paragraphs of last pass overlapping this one no longer exist.
+            releasePrevious(textBuffer.previousOffset(end) + 1);
+        }
+
+        if (paragraph != null && relayout != null && !paragraph.isValidFor(span, fontSize)) {
+            ParagraphLayout laidOut = relayout.take(paragraph, span, fontSize);
+            if (laidOut != null) {
+                releaseViews(paragraph);
+                laidOut.setState(paragraph.getState());
+                paragraph = laidOut;
+            }
+        }
+        if (paragraph != null && paragraph.getFontSize() != fontSize
+                && metrics.scalesLinearly(paragraph.getFontSize(), fontSize)
+                && paragraph.isValidScaledFor(span, fontSize, X_INIT)) {
+            // zoomed with widths scaling linearly: same line breaks, lines are mounted again with new font.
+            releaseViews(paragraph);
+            paragraph.scale(fontSize, X_INIT);
+        } else if (paragraph != null && !paragraph.isValidFor(span, fontSize) && textBuffer.getSize() >= ASYNC_LAYOUT) {
+            // same characters, only span or font size changed: old line breaks are kept until Relayout is done.
+            staleParagraphs.add(paragraph);
+        } else if (paragraph == null || !paragraph.isValidFor(span, fontSize)) {
+            if (paragraph == null) {
+                paragraph = new ParagraphLayout();
+                // a new paragraph may begin in another lexer state than the one cached at its place.
+                edited = true;
+            } else {
+                releaseViews(paragraph);
+            }
+            breakParagraph(paragraph, start, length);
+            textBuffer.setTraversalMan(end);
+        }
+        if (laidParagraphs.isEmpty()) {
+            // the paragraph before an edit may now be followed by others, so lexing starts from it.
+            edited = true;
+        }
+        paragraph.setLength(length);
+        paragraph.setContinued(continued);
+        paragraph.setLogicalStart(!continuing);
+        continuing = continued;
+        laidParagraphs.add(paragraph);
+
+        if (edited) {
+            highlighter.markDirty(paragraph);
+        }
+        return paragraph;
+    }
+
+    // paragraph of last pass starting where given offset was then, if none of its characters nor the one
+    // following it has been edited since (so it would end at the same place), null otherwise.
+    private ParagraphLayout matchUnchanged(long start) {
+        long previousStart = textBuffer.previousOffset(start);
+        releasePrevious(previousStart);
+        ParagraphLayout paragraph = previousAt(previousIndex);
+        if (paragraph == null || previousStarts[previousIndex] != previousStart
+                || textBuffer.isEdited(start, start + paragraph.getLength())) {
+            return null;
+        }
+        previousIndex += 1;
+        return paragraph;
+    }
+
+    // whether paragraph being scanned, length characters long so far, should end before given offset as a segment.
+    // it ends where a segment of last pass began (outside edited region), so later segments are matched again,
+    // otherwise at SEGMENT characters unless a segment of last pass going on here still has its boundary ahead.
+    // a segment never ends right before a newline or the end of content.
+    private boolean isSegmentEnd(long next, int length) {
+        boolean end;
+        if (length >= MAX_SEGMENT) {
+            end = true;
+        } else {
+            long old = textBuffer.previousOffset(next);
+            while (previousAt(boundaryIndex) != null && previousStarts[boundaryIndex] < old) {
+                boundaryIndex += 1;
+            }
+            if (previousAt(boundaryIndex) != null && previousStarts[boundaryIndex] == old
+                    && !textBuffer.isEdited(next, next)) {
+                end = true;
+            } else {
+                boolean ahead = boundaryIndex > 0 && previousParagraphs.get(boundaryIndex - 1).isContinued();
+                end = length >= SEGMENT && !ahead;
+            }
+        }
+        return end && next < textBuffer.getSize() && textBuffer.charAt(next) != '\n';
+    }
+
+    // compute line breaks of paragraph of given length starting at given offset from glyph widths.
+    private void breakParagraph(ParagraphLayout paragraph, long start, int length) {
+        textBuffer.setTraversalMan(start);
+        paragraph.breakLines(() -> {
+            char c = textBuffer.current();
+            textBuffer.advance();
+            return c;
+        }, length, metrics, fontSize, span, X_INIT);
+    }
+
+    // place main and extra cursors, each one found in the LayoutTree by its offset.
+    private void placeCursors() {
+        cursorLine = placeCursor(cursor, textBuffer.getCursor());
+        extraCursorCount = 0;
+        for (int i = 0; i < textBuffer.getExtraCursorCount(); i += 1) {
+            Rectangle extra = acquireExtraCursor();
+            extraLines[extraCursorCount - 1] = placeCursor(extra, textBuffer.getExtraCursor(i));
         }
+        trimExtraCursors();
+    }
 
-        if (cursorPos == null) {
+    // put cursor at given offset, right after the character before it (at the start of the next line if that is a
+    // newline or the last one of a fold), return visual line the cursor is on, its y coordinate is set once window
+    // top line is known.
+    private int placeCursor(Rectangle cursor, long offset) {
+        ParagraphLayout paragraph = offset == 0 ? null : paragraphs.find(offset - 1);
+        if (paragraph == null) {
             cursor.setX(X_INIT);
-            cursor.setY(0);
+            return 0;
         }
+        long start = paragraphs.getFoundStart();
+        int lineNo = paragraphs.getFoundLine();
+        if (offset - 1 - start >= paragraph.getLength()) {
+            cursor.setX(X_INIT);
+            return lineNo + paragraph.getLineCount();
+        }
+        int index = (int) (offset - 1 - start);
+        int i = 0;
+        while (index >= paragraph.getLine(i).size()) {
+            index -= paragraph.getLine(i).size();
+            i += 1;
+        }
+        LineLayout line = paragraph.getLine(i);
+        int x = X_INIT + line.xAt(index + 1);
+        if (x > span && textBuffer.charAt(start + line.getStart() + index) == ' ') {
+            cursor.setX(span);
+        } else {
+            cursor.setX(x + 1);
+        }
+        return lineNo + i;
+    }
+
+    // set y coordinates of cursors relative to window top line.
+    private void placeCursorsInWindow() {
+        cursor.setY((double) (cursorLine - topLine) * lineHeight);
+        for (int i = 0; i < extraCursorCount; i += 1) {
+            extraCursors.get(i).setY((double) (extraLines[i] - topLine) * lineHeight);
+        }
+    }
+
+    // finish rendering pass: cursors, highlighting of what was laid out, scroll bar and lines in window.
+    private void finishLayout() {
+        placeCursors();
+        highlighter.endPass(paragraphs);
 
         updateScrollBarSize();
         updateRootPos();
+        showWindow();
+        updateStatus();
+    }
+
+    // lay stale paragraphs out again in the background, unless a relayout for current span and font size is running.
+    // results of a finished relayout have been taken by the pass just done, those left are of edited paragraphs.
+    // once it is done, every paragraph is visited again to take its results.
+    private void relayoutStale() {
+        if (relayout != null && (relayout.isFinished() || !relayout.isFor(span, fontSize))) {
+            relayout.cancel();
+            relayout = null;
+        }
+        if (relayout == null && !staleParagraphs.isEmpty()) {
+            long[] starts = new long[staleParagraphs.size()];
+            for (int i = 0; i < starts.length; i += 1) {
+                paragraphs.locate(staleParagraphs.get(i));
+                starts[i] = paragraphs.getFoundStart();
+            }
+            relayout = new Relayout(textBuffer, staleParagraphs, starts, fontType, span, fontSize, X_INIT, () -> {
+                layoutAll = true;
+                requestUpdate();
+            });
+            relayout.start();
+        }
     }
 
 
@@ -0,0 +1,209 @@
+package component;
+
+import java.io.IOException;
+
+/**
+ *  Snapshot: immutable version of TextBuffer content, safe to read from any thread while content is being edited.
+ *    - holds the chunks content consisted of when it was taken; TextBuffer never changes a chunk a snapshot
+ *      refers to, it edits a copy in its place, so characters are shared instead of copied.
+ *    - chunk start offsets are kept in an array, random access is a binary search followed by a chunk lookup.
+ *  close() must be called once reading is finished, so storage of chunks dropped by later edits can be reused.
+ */
+public class Snapshot implements AutoCloseable {
+    private final Chunk[] chunks;
+    private final long[] starts;
+    private final long size;
+    private boolean closed;
+
+    Snapshot(Chunk[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+        this.starts = new long[chunks.length + 1];
+        for (int i = 0; i < chunks.length; i += 1) {
+            starts[i + 1] = starts[i] + chunks[i].length();
+        }
+    }
+
+    // number of characters.
+    public long size() {
+        return size;
+    }
+
+    // character at given offset.
+    public char charAt(long offset) {
+        int i = chunkOf(offset);
+        return chunks[i].charAt((int) (offset - starts[i]));
+    }
+
+    // characters in [start, end).
+    public String getText(long start, long end) {
+        StringBuilder sb = new StringBuilder((int) (end - start));
+        Reader reader = reader(start);
+        for (long i = start; i < end; i += 1) {
+            sb.append(reader.next());
+        }
+        return sb.toString();
+    }
+
+    // offset of the first occurrence of target at or after from, -1 if absent.
+    public long indexOf(String target, long from) {
+        if (target.isEmpty()) {
+            return Math.min(from, size);
+        }
+        long last = size - target.length();
+        for (long start = from; start <= last; start += 1) {
+            if (charAt(start) != target.charAt(0)) {
+                continue;
+            }
+            Reader reader = reader(start);
+            int matched = 0;
+            while (matched < target.length() && reader.next() == target.charAt(matched)) {
+                matched += 1;
+            }
+            if (matched == target.length()) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    // write all characters to the file of given IOManager.
+    // chunks still referring to bytes of the opened file are copied from it, only changed ones are encoded.
+    // once the new version is in place, chunks refer to their bytes there.
+    // chunks are pinned, so the editing thread does not read or change their source meanwhile.
+    // return number of leading bytes copied to where they were in the file, so they are known not to have changed
+    // (0 for a compressed file, whose bytes are not compared).
+    public long save(IOManager ioManager) throws IOException {
+        int n = chunks.length;
+        boolean[] copied = new boolean[n];
+        for (int i = 0; i < n; i += 1) {
+            copied[i] = chunks[i].source != null && chunks[i].source.isOpen() && chunks[i].length() > 0;
+        }
+        // a surrogate pair cut by a chunk end is written by copying both chunks in one range or by encoding both,
+        // a high surrogate ending a chunk without its pair is always encoded.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < n; i += 1) {
+                if (!endsHigh(i)) {
+                    continue;
+                }
+                boolean linked = startsLow(i + 1);
+                boolean kept = linked && copied[i] && copied[i + 1] && chunks[i].source == chunks[i + 1].source
+                        && chunks[i].sourceEnd == chunks[i + 1].sourceStart;
+                if (!kept && (copied[i] || (linked && copied[i + 1]))) {
+                    copied[i] = false;
+                    if (linked) {
+                        copied[i + 1] = false;
+                    }
+                    changed = true;
+                }
+            }
+        }
+
+        Source previous = ioManager.getSource();
+        IOManager.Writer writer = ioManager.new Writer();
+        long[] positions = new long[n + 1];
+        for (int i = 0; i < n; i += 1) {
+            Chunk chunk = chunks[i];
+            if (copied[i]) {
+                writer.copy(chunk.source, chunk.sourceStart, chunk.sourceEnd);
+            } else {
+                writer.write(chunk);
+            }
+            positions[i + 1] = writer.position();
+        }
+        Source source = writer.commit();
+
+        long unchanged = 0;
+        for (int i = 0; i < n && !ioManager.isCompressed(); i += 1) {
+            if (!copied[i] || chunks[i].source != previous || chunks[i].sourceStart != positions[i]) {
+                break;
+            }
+            unchanged = positions[i + 1];
+        }
+
+        // bytes replacing an unpaired high surrogate at a chunk end are written with the next chunk,
+        // so neither of both chunks matches its bytes alone.
+        boolean loneBefore = false;
+        for (int i = 0; i < n; i += 1) {
+            Chunk chunk = chunks[i];
+            boolean lone = endsHigh(i) && !startsLow(i + 1);
+            chunk.source = lone || loneBefore ? null : source;
+            chunk.sourceStart = positions[i];
+            chunk.sourceEnd = positions[i + 1];
+            loneBefore = lone;
+        }
+        return unchanged;
+    }
+
+    // whether chunk at given index ends with a high surrogate.
+    private boolean endsHigh(int i) {
+        int length = chunks[i].length();
+        return length > 0 && Character.isHighSurrogate(chunks[i].charAt(length - 1));
+    }
+
+    // whether chunk at given index (if any) begins with a low surrogate.
+    private boolean startsLow(int i) {
+        return i < chunks.length && chunks[i].length() > 0 && Character.isLowSurrogate(chunks[i].charAt(0));
+    }
+
+    // sequential reader starting at given offset.
+    public Reader reader(long offset) {
+        return new Reader(offset);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Chunk chunk : chunks) {
+            chunk.unpin();
+        }
+    }
+
+    // index of chunk holding given offset.
+    private int chunkOf(long offset) {
+        int lo = 0, hi = chunks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+
+    /**
+     *  sequential reader of a snapshot, one chunk lookup per chunk instead of one per character.
+     */
+    public class Reader {
+        private int chunk;
+        private int index;
+        private long offset;
+
+        private Reader(long offset) {
+            this.offset = offset;
+            this.chunk = chunkOf(offset);
+            this.index = (int) (offset - starts[chunk]);
+        }
+
+        public boolean hasNext() {
+            return offset < size;
+        }
+
+        public char next() {
+            while (index >= chunks[chunk].length()) {
+                chunk += 1;
+                index = 0;
+            }
+            offset += 1;
+            return chunks[chunk].charAt(index++);
+        }
+    }
+}
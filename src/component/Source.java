@@ -0,0 +1,68 @@
+package component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  Source: one version of the opened file, kept open so chunks decoded from it unchanged can be saved by copying
+ *  their bytes instead of encoding their characters.
+ *    - the channel keeps referring to this version even after a save has put a new file in its place.
+ *    - only charsets whose encoded length of a character is known without encoding are tracked:
+ *      UTF-8 (a surrogate pair counts as 4 bytes on its high half) and single byte ISO-8859-1 / US-ASCII.
+ */
+public class Source {
+    private final FileChannel channel;
+    private final boolean utf8;
+
+    private Source(FileChannel channel, boolean utf8) {
+        this.channel = channel;
+        this.utf8 = utf8;
+    }
+
+    // open given file version for reading, null if charset is not tracked.
+    static Source open(Path path, Charset charset) throws IOException {
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        if (!utf8 && !charset.equals(StandardCharsets.ISO_8859_1) && !charset.equals(StandardCharsets.US_ASCII)) {
+            return null;
+        }
+        return new Source(FileChannel.open(path, StandardOpenOption.READ), utf8);
+    }
+
+    // number of bytes character takes in file.
+    int encodedLength(char c) {
+        if (!utf8 || c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        if (Character.isHighSurrogate(c)) {
+            return 4;
+        }
+        return Character.isLowSurrogate(c) ? 0 : 3;
+    }
+
+    // copy bytes [start, end) to target, without passing them through Java heap where platform allows.
+    synchronized void transferTo(long start, long end, WritableByteChannel target) throws IOException {
+        while (start < end) {
+            long n = channel.transferTo(start, end - start, target);
+            if (n <= 0) {
+                throw new IOException("Opened file was truncated by another process.");
+            }
+            start += n;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,355 @@
+package component;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.util.Duration;
+
+import java.util.Arrays;
+
+/**
+ *  SpellChecker: spell checking of the part of content shown in window against a Dictionary, in the background.
+ *    - RenderEngine reports the ranges shown in window. only parts of them not checked since they last changed are
+ *      sent to a checking thread, at most BATCH characters at a time, so only dirty and visible text is tokenized.
+ *    - a batch is sent once input has been quiet for QUIET, and batches are spaced by the same delay, so typing,
+ *      scrolling and a window full of unchecked text never keep the JavaFX application thread busy.
+ *    - words are tokenized and looked up on the checking thread, misspelled ones come back as markers (offset
+ *      ranges) for RenderEngine to underline. results of a batch are dropped if content changed meanwhile.
+ *    - checked ranges and markers follow edits as an EditListener: they move with content, and the characters
+ *      around an edit become unchecked, so only the words touched are checked again.
+ *  a word is a run of letters with inner apostrophes, MIN_WORD to MAX_WORD characters long and lower case after its
+ *  first letter, runs holding digits or '_' (identifiers, numbers) are not checked.
+ */
+public class SpellChecker implements TextBuffer.EditListener {
+    private static final int MIN_WORD = 2;
+    private static final int MAX_WORD = 64;
+    private static final int BATCH = 1 << 16;
+    private static final Duration QUIET = Duration.millis(150);
+
+    private TextBuffer textBuffer;
+    private Dictionary dictionary;
+    private Runnable onMarkers;
+    private PauseTransition timer;
+
+    private long[] visible;
+    private Ranges checked;
+    private Ranges markers;
+    private int version;
+    private boolean busy;
+
+    // check content against dictionary, onMarkers is called whenever markers change.
+    public SpellChecker(TextBuffer textBuffer, Dictionary dictionary, Runnable onMarkers) {
+        this.textBuffer = textBuffer;
+        this.dictionary = dictionary;
+        this.onMarkers = onMarkers;
+        this.visible = new long[0];
+        this.checked = new Ranges();
+        this.markers = new Ranges();
+        this.timer = new PauseTransition(QUIET);
+        this.timer.setOnFinished(e -> dispatch());
+        textBuffer.addEditListener(this);
+    }
+
+    public void stop() {
+        textBuffer.removeEditListener(this);
+        timer.stop();
+    }
+
+    // ranges of content shown in window, as {start0, end0, start1, end1, ...}.
+    public void show(long[] ranges) {
+        if (!Arrays.equals(ranges, visible)) {
+            visible = ranges;
+            timer.playFromStart();
+        }
+    }
+
+
+    /**
+     *  group methods giving markers of misspelled words to RenderEngine, in ascending order.
+     */
+    // index of the first marker ending after given offset.
+    public int markerIndex(long offset) {
+        return markers.firstEndingAfter(offset);
+    }
+
+    public int getMarkerCount() {
+        return markers.size();
+    }
+
+    public long getMarkerStart(int i) {
+        return markers.start(i);
+    }
+
+    public long getMarkerEnd(int i) {
+        return markers.end(i);
+    }
+
+
+    /**
+     *  group methods running batches.
+     */
+    // send the first unchecked part of window to a checking thread, unless one is running.
+    private void dispatch() {
+        if (busy) {
+            return;
+        }
+        long[] gap = firstUnchecked();
+        if (gap == null) {
+            return;
+        }
+        long start = gap[0];
+        long end = Math.min(gap[1], start + BATCH);
+        // words crossing the batch boundaries are read whole.
+        long size = textBuffer.getSize();
+        long base = Math.max(0, start - MAX_WORD - 1);
+        String text = textBuffer.getText(base, Math.min(size, end + MAX_WORD + 1));
+        int batchVersion = version;
+        busy = true;
+        Thread worker = new Thread(() -> {
+            Ranges found = check(text, base, start, end, size);
+            Platform.runLater(() -> publish(batchVersion, start, end, found));
+        }, "SpellChecker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // first part of a shown range not checked, as {start, end}, null if window is checked.
+    private long[] firstUnchecked() {
+        for (int r = 0; r < visible.length; r += 2) {
+            long pos = visible[r];
+            long end = visible[r + 1];
+            for (int i = checked.firstEndingAfter(pos); i < checked.size() && checked.start(i) < end; i += 1) {
+                if (checked.start(i) > pos) {
+                    return new long[] {pos, checked.start(i)};
+                }
+                pos = Math.max(pos, checked.end(i));
+            }
+            if (pos < end) {
+                return new long[] {pos, end};
+            }
+        }
+        return null;
+    }
+
+    // take results of a batch over [start, end) unless content changed meanwhile, then go on with the next one.
+    private void publish(int batchVersion, long start, long end, Ranges found) {
+        busy = false;
+        if (batchVersion == version) {
+            markers.removeOverlapping(start, end);
+            for (int i = 0; i < found.size(); i += 1) {
+                markers.add(found.start(i), found.end(i));
+            }
+            checked.add(start, end);
+            onMarkers.run();
+        }
+        timer.playFromStart();
+    }
+
+    // misspelled words of text (starting at offset base of content of given size) overlapping [start, end).
+    // runs on the checking thread.
+    private Ranges check(String text, long base, long start, long end, long size) {
+        Ranges found = new Ranges();
+        int i = 0;
+        while (i < text.length()) {
+            if (!isWordChar(text.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int from = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                i += 1;
+            }
+            // a run cut by either end of text is not known whole.
+            boolean cut = (from == 0 && base > 0) || (i == text.length() && base + i < size);
+            if (cut || base + i <= start || base + from >= end) {
+                continue;
+            }
+            int to = i;
+            while (from < to && text.charAt(from) == '\'') {
+                from += 1;
+            }
+            while (to > from && text.charAt(to - 1) == '\'') {
+                to -= 1;
+            }
+            String word = text.substring(from, to);
+            if (isCheckable(word) && !isKnown(word)) {
+                found.add(base + from, base + to);
+            }
+        }
+        return found;
+    }
+
+    private boolean isKnown(String word) {
+        if (dictionary.contains(word)) {
+            return true;
+        }
+        return word.endsWith("'s") && dictionary.contains(word.substring(0, word.length() - 2));
+    }
+
+    // whether a run is a word to look up: letters and apostrophes only, lower case after its first letter.
+    private static boolean isCheckable(String word) {
+        if (word.length() < MIN_WORD || word.length() > MAX_WORD) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i += 1) {
+            char c = word.charAt(i);
+            if (c != '\'' && (!Character.isLetter(c) || (i > 0 && Character.isUpperCase(c)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\'';
+    }
+
+
+    /**
+     *  group methods following changes of content, the characters next to an edit are checked again.
+     */
+    @Override
+    public void inserted(long offset, String text) {
+        version += 1;
+        long end = offset + text.length();
+        checked.inserted(offset, text.length());
+        checked.subtract(offset - 1, end + 1);
+        markers.inserted(offset, text.length());
+        markers.removeOverlapping(offset - 1, end + 1);
+        timer.playFromStart();
+    }
+
+    @Override
+    public void removed(long offset, long length) {
+        version += 1;
+        checked.removed(offset, length);
+        checked.subtract(offset - 1, offset + 1);
+        markers.removed(offset, length);
+        markers.removeOverlapping(offset - 1, offset + 1);
+        timer.playFromStart();
+    }
+
+
+    /**
+     *  sorted disjoint offset ranges [start, end) moving with content.
+     */
+    private static class Ranges {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int count;
+
+        private int size() {
+            return count;
+        }
+
+        private long start(int i) {
+            return starts[i];
+        }
+
+        private long end(int i) {
+            return ends[i];
+        }
+
+        // index of the first range ending after given offset, count if none.
+        private int firstEndingAfter(long offset) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] <= offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // add [start, end), merging ranges it overlaps or touches.
+        private void add(long start, long end) {
+            int i = firstEndingAfter(start - 1);
+            int j = i;
+            while (j < count && starts[j] <= end) {
+                start = Math.min(start, starts[j]);
+                end = Math.max(end, ends[j]);
+                j += 1;
+            }
+            replace(i, j, 1);
+            starts[i] = start;
+            ends[i] = end;
+        }
+
+        // drop ranges overlapping [start, end).
+        private void removeOverlapping(long start, long end) {
+            int i = firstEndingAfter(start);
+            int j = i;
+            while (j < count && starts[j] < end) {
+                j += 1;
+            }
+            replace(i, j, 0);
+        }
+
+        // take [start, end) out of every range.
+        private void subtract(long start, long end) {
+            int i = firstEndingAfter(start);
+            if (i == count || starts[i] >= end) {
+                return;
+            }
+            int j = i;
+            while (j < count && starts[j] < end) {
+                j += 1;
+            }
+            long left = starts[i], right = ends[j - 1];
+            int pieces = (left < start ? 1 : 0) + (right > end ? 1 : 0);
+            replace(i, j, pieces);
+            if (left < start) {
+                starts[i] = left;
+                ends[i] = start;
+                i += 1;
+            }
+            if (right > end) {
+                starts[i] = end;
+                ends[i] = right;
+            }
+        }
+
+        // length characters were inserted at offset: ranges behind it move, a range around it grows.
+        private void inserted(long offset, long length) {
+            for (int i = firstEndingAfter(offset); i < count; i += 1) {
+                if (starts[i] >= offset) {
+                    starts[i] += length;
+                }
+                ends[i] += length;
+            }
+        }
+
+        // length characters starting at offset were removed: ranges shrink or move, emptied ones are dropped.
+        private void removed(long offset, long length) {
+            int kept = firstEndingAfter(offset);
+            for (int i = kept; i < count; i += 1) {
+                long start = shift(starts[i], offset, length);
+                long end = shift(ends[i], offset, length);
+                if (start < end) {
+                    starts[kept] = start;
+                    ends[kept] = end;
+                    kept += 1;
+                }
+            }
+            count = kept;
+        }
+
+        private static long shift(long x, long offset, long length) {
+            return x <= offset ? x : Math.max(offset, x - length);
+        }
+
+        // replace ranges [i, j) by room for given number of ranges.
+        private void replace(int i, int j, int room) {
+            int newCount = count - (j - i) + room;
+            if (newCount > starts.length) {
+                starts = Arrays.copyOf(starts, Math.max(newCount, starts.length * 2));
+                ends = Arrays.copyOf(ends, starts.length);
+            }
+            System.arraycopy(starts, j, starts, i + room, count - j);
+            System.arraycopy(ends, j, ends, i + room, count - j);
+            count = newCount;
+        }
+    }
+}
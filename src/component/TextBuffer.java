@@ -1,289 +1,1084 @@
 package component;
 
-import javafx.scene.Group;
-import javafx.scene.text.Text;
-
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  *  TextBuffer:
- *    - organizing linked list for text input.
- *    - using hashmap to maintain line information to support fast mouse clicking operation.
- *    - supporting series of operations on underlying linked list.
+ *    - organizing content as a doubly linked list of chunks (see Chunk), compact for Latin-1 text,
+ *      kept on the heap or optionally off-heap for huge files (see OffHeapArena).
+ *    - addressing characters, cursor and selection by character offset.
+ *    - keeping extra cursors besides the main one, a keystroke is applied at every cursor in one batch.
+ *    - recording the region touched by edits since last rendering pass to support incremental layout and highlighting.
+ *    - publishing immutable snapshots sharing chunks with content, chunks are copied on write once shared.
+ *    - reporting every change of content to EditListeners (e.g. a collaboration session, the word index).
+ *    - indexing chunks with a ChunkTree for O(log n) offset lookup and line / word / character statistics
+ *      of whole content or any range, e.g. the selection.
+ *  the buffer does not depend on JavaFX and can be driven headless.
  */
 public class TextBuffer {
-    private Node sentinel;
-    private Node currentPos;
-    private Node traversalMan;
-    private Node helper;
+    /**
+     *  receiver of content changes, called right after each change on the editing thread.
+     */
+    public interface EditListener {
+        // text was inserted at given offset.
+        void inserted(long offset, String text);
+
+        // length characters starting at given offset are about to be removed, they can still be read.
+        default void removing(long offset, long length) {
+        }
+
+        // length characters starting at given offset were removed.
+        void removed(long offset, long length);
+    }
+
+    private OffHeapArena arena;
+    private Chunk head;
+    private Chunk tail;
+    private ChunkTree tree;
+    private long size;
+    private long cursor;
+
+    // extra cursors, ascending and distinct, the main cursor is kept out of them.
+    private long[] extraCursors;
+    private int extraCount;
+
+    // last located chunk and offset of its first character, consecutive accesses are mostly local.
+    private Chunk hint;
+    private long hintStart;
+
+    // traversal position used by rendering pass.
+    private long traversal;
+    private Chunk traversalChunk;
+    private int traversalIndex;
 
-    private Group root;
     private IOManager ioManager;
+    private List<EditListener> editListeners = new ArrayList<>();
 
-    private Map<Integer, Node> lineNo_to_startNode;
-    private int maxLine;
+    private long dragStart;
+    private long dragEnd;
 
-    private Node dragStart;
-    private Node dragEnd;
+    // every edit since last generation happened inside [dirtyStart, dirtyEnd] (current offsets).
+    private boolean dirty;
+    private long dirtyStart, dirtyEnd;
+    private long generationSize;
 
-    private class Node {
-        private Text text;
-        private Node next, pre;
+    // number of edits so far, and that number when content last matched the file (loaded, saved or merged).
+    private long version;
+    private long savedVersion;
 
-        public Node(Text text) {
-            this.text = text;
-        }
+    public TextBuffer(IOManager ioManager) throws IOException {
+        this(ioManager, false);
+    }
 
-        public Node(Text text, Node next, Node pre) {
-            this.text = text;
-            this.next = next;
-            this.pre = pre;
+    // offHeap: keep characters in direct memory so heap size and GC work do not grow with content size.
+    public TextBuffer(IOManager ioManager, boolean offHeap) throws IOException {
+        this(ioManager, offHeap, ioManager.new Reader(), Long.MAX_VALUE);
+    }
+
+    // read at most headLimit characters from reader, the rest is left in reader to be appended later
+    // (see Loader), so content can be shown before a large file is fully read.
+    public TextBuffer(IOManager ioManager, boolean offHeap, IOManager.Reader reader, long headLimit) throws IOException {
+        if (offHeap) {
+            arena = new OffHeapArena();
         }
+        head = newChunk();
+        tail = head;
+        hint = head;
+        tree = new ChunkTree();
+        tree.insertAfter(null, head);
+        extraCursors = new long[16];
+
+        this.ioManager = ioManager;
+        init(reader, headLimit);
+        cursor = 0;
+        generationSize = size;
+        resetTraversalMan();
+    }
 
-        public String toString() {
-            return "Node[text: " + text.getText() + "]";
+    /**
+     *  initialize original content from given input file by calling read method supported by IOManager.Reader.
+     */
+    private void init(IOManager.Reader reader, long limit) throws IOException {
+        Source source = ioManager.getSource();
+        long start = reader.getPosition();
+        char c;
+        while (size < limit && (c = reader.getNextCharacter()) != (char)-1) {
+            appendChar(c, reader.isClean() ? source : null, start, reader.getPosition());
+            start = reader.getPosition();
         }
+        tree.update(tail);
     }
 
-    public TextBuffer(IOManager ioManager, Group root) throws IOException {
-        sentinel = new Node(null);
-        sentinel.next = sentinel;
-        sentinel.pre = sentinel;
-        currentPos = sentinel;
+    /**
+     *   add character right before cursor.
+     */
+    public void add(char c) {
+        insertAt(cursor, c);
+        cursor += 1;
+        shiftCursors(cursor - 1, 1, 0);
+    }
 
-        lineNo_to_startNode = new HashMap<>();
+    /**
+     *   delete character right before cursor, return it (-1 if cursor is at the head).
+     */
+    public int delete() {
+        if (cursor == 0) {
+            return -1;
+        }
+        cursor -= 1;
+        char c = removeAt(cursor);
+        shiftCursors(cursor, 0, 1);
+        return c;
+    }
 
-        this.ioManager = ioManager;
-        this.root = root;
-        init(ioManager.new Reader());
+    private void insertAt(long offset, char c) {
+        int i = locate(offset);
+        if (hint.isFull()) {
+            i = makeRoom(i);
+        }
+        writable(hint).insert(i, c);
+        tree.update(hint);
+        size += 1;
+        edited(offset, 1, 0);
+        if (!editListeners.isEmpty()) {
+            fireInserted(offset, String.valueOf(c));
+        }
     }
 
+    private char removeAt(long offset) {
+        fireRemoving(offset, 1);
+        int i = locate(offset);
+        char c = writable(hint).remove(i);
+        tree.update(hint);
+        size -= 1;
+        edited(offset, 0, 1);
+        compact(hint);
+        fireRemoved(offset, 1);
+        return c;
+    }
 
     /**
-     *  initialize original linked list from given input file by calling read method supported by IOManager.Reader.
+     *  insert text at given offset, cursors at or after it move behind the text.
+     *  text not fitting in the chunk splits it once at the offset and is appended to it, so cost of long text
+     *  does not grow with chunk size, short text is inserted in place to keep chunks from fragmenting.
      */
-    private void init(IOManager.Reader reader) throws IOException {
-        char c;
-        while ((c = reader.getNextCharacter()) != (char)-1) {
-            add(new Text(String.valueOf(c)));
+    public void insert(long offset, String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        int i = locate(offset);
+        Chunk chunk = writable(hint);
+        if (text.length() <= chunk.capacity() - chunk.length()) {
+            for (int j = 0; j < text.length(); j += 1) {
+                chunk.insert(i + j, text.charAt(j));
+            }
+        } else {
+            if (i < chunk.length()) {
+                Chunk rest = newChunk();
+                linkAfter(rest, chunk);
+                chunk.moveTailTo(i, rest);
+                tree.update(rest);
+            }
+            for (int j = 0; j < text.length(); j += 1) {
+                if (chunk.isFull()) {
+                    tree.update(chunk);
+                    Chunk fresh = newChunk();
+                    linkAfter(fresh, chunk);
+                    chunk = fresh;
+                }
+                chunk.append(text.charAt(j));
+            }
         }
-        currentPos = sentinel;
+        tree.update(chunk);
+        size += text.length();
+        edited(offset, text.length(), 0);
+        moveAllCursors(offset, text.length(), 0);
+        fireInserted(offset, text);
     }
 
-
     /**
-     *   add element to linked list right after current position.
+     *  insert text whose chunks were filled beforehand (see Prepared), cursors at or after offset move behind it.
+     *  the chunk at offset is split once and the prepared chunks are linked in between, so the editing thread
+     *  only pays for linking them, not for copying characters.
      */
-    public void add(Text text) {
-        root.getChildren().add(text);
-        Node node = new Node(text, currentPos.next, currentPos);
-        currentPos.next.pre = node;
-        currentPos.next = node;
-        currentPos = currentPos.next;
+    public void insert(long offset, Prepared prepared) {
+        prepared.fill(prepared.length());
+        if (prepared.chunks.isEmpty()) {
+            return;
+        }
+        int i = locate(offset);
+        Chunk chunk = writable(hint);
+        if (i < chunk.length()) {
+            Chunk rest = newChunk();
+            linkAfter(rest, chunk);
+            chunk.moveTailTo(i, rest);
+            tree.update(rest);
+            tree.update(chunk);
+        }
+        Chunk pre = chunk;
+        for (Chunk fresh : prepared.chunks) {
+            linkAfter(fresh, pre);
+            pre = fresh;
+        }
+        compact(pre);
+        compact(chunk);
+        long length = prepared.text.length();
+        size += length;
+        edited(offset, length, 0);
+        moveAllCursors(offset, length, 0);
+        fireInserted(offset, prepared.text);
     }
 
+    // chunks for given text, to be filled on any thread.
+    public Prepared prepare(String text) {
+        return new Prepared(text);
+    }
+
+    /**
+     *  text copied into chunks of their own without touching content, so a long insert is prepared on another
+     *  thread and inserted in one step on the editing thread.
+     *  chunks are filled piece by piece, and given back by discard if the text is not inserted after all.
+     *  only one thread at a time uses a Prepared, handing it over through a synchronizing call (e.g. runLater).
+     */
+    public class Prepared {
+        private final String text;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private int filled;
+
+        private Prepared(String text) {
+            this.text = text;
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        // number of characters copied so far.
+        public int filled() {
+            return filled;
+        }
+
+        // copy the next count characters (or all left).
+        public void fill(int count) {
+            int end = (int) Math.min((long) filled + count, text.length());
+            Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            for (int j = filled; j < end; j += 1) {
+                if (chunk == null || chunk.isFull()) {
+                    chunk = newChunk();
+                    chunks.add(chunk);
+                }
+                chunk.append(text.charAt(j));
+                if (chunk.isFull()) {
+                    // bracket summary is computed here rather than by ChunkTree on the editing thread.
+                    chunk.bracketDepth();
+                }
+            }
+            if (chunk != null) {
+                chunk.bracketDepth();
+            }
+            filled = end;
+        }
+
+        public void discard() {
+            for (Chunk chunk : chunks) {
+                chunk.detach();
+            }
+            chunks.clear();
+        }
+    }
 
     /**
-     *   delete element from linked list specified by current position.
+     *  remove length characters starting at given offset, cursors inside the range move to its start.
      */
-    public Node[] delete() {
-        if (currentPos == sentinel) {
-            return new Node[0];
+    public void remove(long offset, long length) {
+        length = Math.min(length, size - offset);
+        if (length <= 0) {
+            return;
+        }
+        fireRemoving(offset, length);
+        long remaining = length;
+        while (remaining > 0) {
+            int i = locate(offset);
+            int count = (int) Math.min(remaining, hint.length() - i);
+            if (count == hint.length() && (hint.pre != null || hint.next != null)) {
+                // a chunk removed as a whole is unlinked without being rewritten or copied.
+                unlink(hint);
+            } else {
+                Chunk chunk = writable(hint);
+                chunk.remove(i, count);
+                tree.update(chunk);
+                compact(chunk);
+            }
+            size -= count;
+            remaining -= count;
+        }
+        edited(offset, 0, length);
+        moveAllCursors(offset, 0, length);
+        fireRemoved(offset, length);
+    }
+
+    // report every later change of content to given listener as well, a listener is added once.
+    public void addEditListener(EditListener editListener) {
+        if (!editListeners.contains(editListener)) {
+            editListeners.add(editListener);
+        }
+    }
+
+    public void removeEditListener(EditListener editListener) {
+        editListeners.remove(editListener);
+    }
+
+    // listeners are called by index, so reporting a keystroke allocates nothing besides its text.
+    private void fireInserted(long offset, String text) {
+        for (int i = 0; i < editListeners.size(); i += 1) {
+            editListeners.get(i).inserted(offset, text);
+        }
+    }
+
+    private void fireRemoving(long offset, long length) {
+        for (int i = 0; i < editListeners.size(); i += 1) {
+            editListeners.get(i).removing(offset, length);
+        }
+    }
+
+    private void fireRemoved(long offset, long length) {
+        for (int i = 0; i < editListeners.size(); i += 1) {
+            editListeners.get(i).removed(offset, length);
         }
-        root.getChildren().remove(currentPos.text);
-        currentPos.next.pre = currentPos.pre;
-        currentPos.pre.next = currentPos.next;
-        Node to_return = currentPos;
-        currentPos = currentPos.pre;
-        return new Node[] {to_return, currentPos};
+    }
+
+    // character at given offset.
+    public char charAt(long offset) {
+        int i = locate(offset);
+        return hint.charAt(i);
+    }
+
+    // offset of the first occurrence of c at or after from, -1 if absent, searched chunk by chunk.
+    public long indexOf(char c, long from) {
+        if (from >= size) {
+            return -1;
+        }
+        int i = locate(from);
+        long start = hintStart;
+        for (Chunk chunk = hint; chunk != null; chunk = chunk.next) {
+            int found = chunk.indexOf(c, i);
+            if (found != -1) {
+                return start + found;
+            }
+            start += chunk.length();
+            i = 0;
+        }
+        return -1;
+    }
+
+    // offset of the bracket matching the one at given offset, -1 if there is no bracket there or it is unbalanced
+    // or closed by another kind, found through the bracket depths of ChunkTree in O(log n) plus one chunk scan.
+    public long matchingBracket(long offset) {
+        if (offset < 0 || offset >= size) {
+            return -1;
+        }
+        char c = charAt(offset);
+        int bracket = Chunk.bracket(c);
+        if (bracket == 0) {
+            return -1;
+        }
+        long match = bracket > 0 ? tree.closingAfter(offset) : tree.openingBefore(offset);
+        return match != -1 && charAt(match) == Chunk.partner(c) ? match : -1;
+    }
+
+    // characters in [start, end).
+    public String getText(long start, long end) {
+        StringBuilder sb = new StringBuilder((int) (end - start));
+        appendText(start, end, sb);
+        return sb.toString();
+    }
+
+    // return number of characters.
+    public long getSize() {
+        return size;
+    }
+
+    // statistics of whole content, maintained by ChunkTree.
+    public TextStats getStats() {
+        return new TextStats(size, tree.lines() + 1, tree.words());
+    }
+
+    // statistics of characters in [start, end), a word cut by start is counted as well.
+    public TextStats getStats(long start, long end) {
+        long[] before = new long[2];
+        long[] through = new long[2];
+        tree.countBefore(start, before);
+        tree.countBefore(end, through);
+        long words = through[1] - before[1];
+        if (start > 0 && start < end && !Character.isWhitespace(charAt(start))
+                && !Character.isWhitespace(charAt(start - 1))) {
+            words += 1;
+        }
+        return new TextStats(end - start, through[0] - before[0] + 1, words);
+    }
+
+    // immutable view of current content for readers on other threads, to be closed once read.
+    // costs one reference per chunk, characters are shared until content is edited.
+    public Snapshot snapshot() {
+        int count = 0;
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            count += 1;
+        }
+        Chunk[] chunks = new Chunk[count];
+        int i = 0;
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            chunk.pin();
+            chunks[i] = chunk;
+            i += 1;
+        }
+        return new Snapshot(chunks, size);
     }
 
 
     /**
-     *   group methods to satisfy Region Rendering function triggered by mouse pressing and dragging event.
+     *  group methods maintaining the chunk list.
      */
-    // method to record dragging start node.
-    public void setDragStart() {
-        this.dragStart = currentPos.next;
+    private Chunk newChunk() {
+        return arena == null ? new HeapChunk() : new OffHeapChunk(arena);
     }
 
-    // method to record dragging end node.
-    public void setDragEnd() {
-        this.dragEnd = currentPos;
+    // point hint at the chunk holding given offset (last chunk for offset == size), return index inside it.
+    // nearby offsets are reached by walking the list from hint, distant ones through the tree.
+    private int locate(long offset) {
+        long locality = 4L * hint.capacity();
+        if (offset < hintStart - locality || offset > hintStart + hint.length() + locality) {
+            hint = tree.find(offset);
+            hintStart = tree.getFoundStart();
+        }
+        while (offset < hintStart) {
+            hint = hint.pre;
+            hintStart -= hint.length();
+        }
+        while (offset >= hintStart + hint.length() && hint.next != null) {
+            hintStart += hint.length();
+            hint = hint.next;
+        }
+        return (int) (offset - hintStart);
+    }
+
+    // make room in full hint chunk for an insertion at index i, return insertion index in (new) hint chunk.
+    private int makeRoom(int i) {
+        Chunk chunk = hint;
+        if (i == 0 && chunk.pre != null && !chunk.pre.isFull()) {
+            hint = writable(chunk.pre);
+            hintStart -= hint.length();
+            return hint.length();
+        }
+        Chunk fresh = newChunk();
+        if (i == 0) {
+            linkBefore(fresh, chunk);
+            hint = fresh;
+            return 0;
+        }
+        chunk = writable(chunk);
+        linkAfter(fresh, chunk);
+        if (i == chunk.length()) {
+            hint = fresh;
+            hintStart += chunk.length();
+            return 0;
+        }
+        int half = chunk.capacity() / 2;
+        chunk.moveTailTo(half, fresh);
+        tree.update(chunk);
+        tree.update(fresh);
+        if (i > half) {
+            hint = fresh;
+            hintStart += half;
+            return i - half;
+        }
+        return i;
+    }
+
+    // merge chunk with its next one when both are sparse, unlink it when empty.
+    private void compact(Chunk chunk) {
+        if (chunk.next != null && chunk.length() + chunk.next.length() <= chunk.capacity() / 2) {
+            Chunk next = chunk.next;
+            next.copyTo(0, chunk);
+            tree.update(chunk);
+            unlink(next);
+        }
+        if (chunk.length() == 0 && (chunk.pre != null || chunk.next != null)) {
+            unlink(chunk);
+        }
+    }
+
+    private void linkAfter(Chunk chunk, Chunk pre) {
+        tree.insertAfter(pre, chunk);
+        chunk.pre = pre;
+        chunk.next = pre.next;
+        if (pre.next != null) {
+            pre.next.pre = chunk;
+        } else {
+            tail = chunk;
+        }
+        pre.next = chunk;
+    }
+
+    private void linkBefore(Chunk chunk, Chunk next) {
+        tree.insertAfter(next.pre, chunk);
+        chunk.next = next;
+        chunk.pre = next.pre;
+        if (next.pre != null) {
+            next.pre.next = chunk;
+        } else {
+            head = chunk;
+        }
+        next.pre = chunk;
+    }
+
+    private void unlink(Chunk chunk) {
+        tree.remove(chunk);
+        if (chunk.pre != null) {
+            chunk.pre.next = chunk.next;
+        } else {
+            head = chunk.next;
+        }
+        if (chunk.next != null) {
+            chunk.next.pre = chunk.pre;
+        } else {
+            tail = chunk.pre;
+        }
+        if (hint == chunk) {
+            hint = head;
+            hintStart = 0;
+        }
+        chunk.detach();
     }
 
-    // set helper node to dragging start node for iteration.
-    public void renderInit() {
-        traversalMan = dragStart;
+    // return chunk itself if no snapshot refers to it, otherwise put a copy in its place and return the copy.
+    private Chunk writable(Chunk chunk) {
+        if (!chunk.isPinned()) {
+            return chunk;
+        }
+        Chunk copy = newChunk();
+        chunk.copyTo(0, copy);
+        tree.replace(chunk, copy);
+        copy.pre = chunk.pre;
+        copy.next = chunk.next;
+        if (chunk.pre != null) {
+            chunk.pre.next = copy;
+        } else {
+            head = copy;
+        }
+        if (chunk.next != null) {
+            chunk.next.pre = copy;
+        } else {
+            tail = copy;
+        }
+        if (hint == chunk) {
+            hint = copy;
+        }
+        if (traversalChunk == chunk) {
+            traversalChunk = copy;
+        }
+        chunk.detach();
+        return copy;
     }
 
-    // return text content in current node and move formard.
-    public Text getTextToRender() {
-        if (traversalMan == dragEnd.next) {
-            return null;
+    // append character decoded unchanged from bytes [start, end) of source (null if it was not) at the end,
+    // without touching cursor or edit region.
+    // statistics of tail chunk are brought up to date once it is full, callers update the last one.
+    private void appendChar(char c, Source source, long start, long end) {
+        if (tail.isFull()) {
+            tree.update(tail);
+            linkAfter(newChunk(), tail);
         }
-        Text text = traversalMan.text;
-        traversalMan = traversalMan.next;
-        return text;
+        writable(tail).appendFrom(c, source, start, end);
+        size += 1;
     }
 
-    // return text content int current node and move forward.
-    public Text getPreToRender() {
-        if (traversalMan == dragEnd.pre) {
-            return null;
+    // append characters in [start, end) to string builder.
+    private void appendText(long start, long end, StringBuilder sb) {
+        if (start >= end) {
+            return;
+        }
+        int i = locate(start);
+        Chunk chunk = hint;
+        long remaining = end - start;
+        while (remaining > 0) {
+            int to = (int) Math.min(chunk.length(), i + remaining);
+            chunk.appendTo(sb, i, to);
+            remaining -= to - i;
+            chunk = chunk.next;
+            i = 0;
         }
-        Text text = traversalMan.text;
-        traversalMan = traversalMan.pre;
-        return text;
     }
 
 
     /**
-     *  group method to support Content Rendering operation by RenderEngine client methods.
+     *   group methods to satisfy Region Rendering function triggered by mouse pressing and dragging event.
+     *   selection covers characters between the cursor positions recorded at pressing and dragging.
      */
-    // helper method to locate current node for render cursor at the correct position.
-    public boolean isCurrentPos() {
-        return traversalMan == currentPos;
+    // method to record dragging start position.
+    public void setDragStart() {
+        this.dragStart = cursor;
+    }
+
+    // method to record dragging end position.
+    public void setDragEnd() {
+        this.dragEnd = cursor;
+    }
+
+    // offset of the first selected character.
+    public long getSelectionStart() {
+        return Math.min(dragStart, dragEnd);
     }
 
-    // initialize helper node to the beginning of linked list to start rendering.
+    // offset right after the last selected character.
+    public long getSelectionEnd() {
+        return Math.max(dragStart, dragEnd);
+    }
+
+
+    /**
+     *  group method to support Content Rendering operation by RenderEngine client methods.
+     */
+    // initialize traversal position to right before the beginning of content to start rendering.
     public void resetTraversalMan() {
-        traversalMan = sentinel;
+        traversal = -1;
+        traversalChunk = head;
+        traversalIndex = -1;
     }
 
-    // return text content in the current node.
-    public Text current() {
-        if (traversalMan == sentinel) {
-            return null;
+    // set traversal position to given offset (-1 for right before the beginning).
+    public void setTraversalMan(long offset) {
+        if (offset < 0) {
+            resetTraversalMan();
+            return;
         }
-        return traversalMan.text;
+        traversalIndex = locate(offset);
+        traversalChunk = hint;
+        traversal = offset;
     }
 
-    // move helper node to next position and return corresponding text content.
-    public Text advance() {
-        traversalMan = traversalMan.next;
-        return current();
+    // whether traversal position points to a character (not the end of content).
+    public boolean hasCurrent() {
+        return traversal >= 0 && traversal < size;
     }
 
-    // return current node.
-    public Node getCurrentNode() {
-        return traversalMan;
+    // return character at traversal position.
+    public char current() {
+        return traversalChunk.charAt(traversalIndex);
+    }
+
+    // move traversal position forward, return false when reaching the end of content.
+    public boolean advance() {
+        traversal += 1;
+        traversalIndex += 1;
+        while (traversalIndex >= traversalChunk.length() && traversalChunk.next != null) {
+            traversalIndex -= traversalChunk.length();
+            traversalChunk = traversalChunk.next;
+        }
+        return hasCurrent();
+    }
+
+    // return traversal position.
+    public long getCurrentOffset() {
+        return traversal;
     }
 
 
     /**
-     *  group method to support Cursor Location by mouse clicking event.
+     *  group method to support Cursor Location by key and mouse clicking events.
      */
-    // return text in the current node.
-    public Text currentPos_current() {
-        return currentPos.text;
+    // return cursor position (number of characters before cursor).
+    public long getCursor() {
+        return cursor;
+    }
+
+    // put cursor right after the first offset characters (clamped to content size).
+    public void setCursor(long offset) {
+        cursor = Math.max(0, Math.min(offset, size));
+    }
+
+    // move every cursor by given number of characters (clamped to content), cursors meeting are merged.
+    public void moveCursors(long delta) {
+        setCursor(cursor + delta);
+        for (int i = 0; i < extraCount; i += 1) {
+            extraCursors[i] = Math.max(0, Math.min(extraCursors[i] + delta, size));
+        }
+        mergeCursors();
     }
 
     // judgement helper method for making sure cursor at most be set to the end of the content.
     public boolean isEnd() {
-        return currentPos == sentinel;
+        return cursor == size;
     }
 
-    // move forward current node to its previous position [right position for cursor to go].
-    public void decreCurrent(boolean type) {
-        if (type) {
-            if (currentPos == sentinel) {
-                return;
-            }
-            currentPos = currentPos.pre;
-        } else {
-            currentPos = currentPos.pre;
-        }
+    // move cursor one character backward.
+    public void decreCurrent() {
+        setCursor(cursor - 1);
     }
 
-    // move backward current node to its next position to satisfy X position requirement.
-    public void increCurrent(boolean type) {
-        if (type) {
-            if (currentPos.next == sentinel) {
-                return;
-            }
-            currentPos = currentPos.next;
-        } else {
-            currentPos = currentPos.next;
-        }
+    // move cursor one character forward.
+    public void increCurrent() {
+        setCursor(cursor + 1);
     }
 
     // two special cases may happen in Cursor Location traggered by mouse clicking event:
     //  - one for jumping out of bound at the bottom.
     public void setCurToTail() {
-        currentPos = sentinel.pre;
+        cursor = size;
     }
 
     // - one for jumpping out of bound at the very beginning.
     public void setCurToHead() {
-        currentPos = sentinel;
+        cursor = 0;
     }
 
 
     /**
-     *  group methods to store extra information in order to satisfy runtime bound for clicking operations.
-     *  keep record line number information and mapping between line number and start node for each line.
+     *  group methods for multiple cursors: a batch edit is applied from the last cursor to the first one,
+     *  so offsets of cursors not yet visited stay valid, and all cursors are moved once afterwards.
+     *  one batch costs O(k log n) for k cursors and marks one edited region for the next rendering pass.
      */
-    // reset line number and mapping hashtable before Content Rendering.
-    public void resetLineInfo() {
-        maxLine = 1;
-        lineNo_to_startNode.clear();
+    // put an extra cursor right after the first offset characters, nothing happens if a cursor is already there.
+    public void addCursor(long offset) {
+        offset = Math.max(0, Math.min(offset, size));
+        int i = cursorsBefore(offset);
+        if (offset == cursor || (i < extraCount && extraCursors[i] == offset)) {
+            return;
+        }
+        if (extraCount == extraCursors.length) {
+            extraCursors = Arrays.copyOf(extraCursors, extraCount * 2);
+        }
+        System.arraycopy(extraCursors, i, extraCursors, i + 1, extraCount - i);
+        extraCursors[i] = offset;
+        extraCount += 1;
+    }
+
+    // drop every extra cursor, the main cursor stays.
+    public void clearCursors() {
+        extraCount = 0;
+    }
+
+    // number of cursors including the main one.
+    public int getCursorCount() {
+        int before = cursorsBefore(cursor);
+        return before < extraCount && extraCursors[before] == cursor ? extraCount : extraCount + 1;
+    }
+
+    // cursor positions in ascending order including the main one.
+    public long[] getCursors() {
+        return allCursors();
+    }
+
+    // first cursor position, read without copying cursors.
+    public long getFirstCursor() {
+        return extraCount > 0 ? Math.min(cursor, extraCursors[0]) : cursor;
+    }
+
+    // last cursor position, read without copying cursors.
+    public long getLastCursor() {
+        return extraCount > 0 ? Math.max(cursor, extraCursors[extraCount - 1]) : cursor;
+    }
+
+    // add character right before every cursor, return offsets of added characters in the order they were added.
+    public long[] addAtCursors(char c) {
+        long[] all = allCursors();
+        int main = cursorsBefore(cursor);
+        long[] offsets = new long[all.length];
+        for (int k = all.length - 1; k >= 0; k -= 1) {
+            insertAt(all[k], c);
+            offsets[all.length - 1 - k] = all[k];
+        }
+        for (int k = 0; k < all.length; k += 1) {
+            all[k] += k + 1;
+        }
+        setCursors(all, main);
+        return offsets;
+    }
+
+    // delete character right before every cursor, deleted characters are appended to given builder.
+    // return offsets of deleted characters in the order they were deleted.
+    public long[] deleteAtCursors(StringBuilder deleted) {
+        long[] all = allCursors();
+        int main = cursorsBefore(cursor);
+        long[] offsets = new long[all.length];
+        int count = 0;
+        for (int k = all.length - 1; k >= 0; k -= 1) {
+            if (all[k] > 0) {
+                deleted.append(removeAt(all[k] - 1));
+                offsets[count] = all[k] - 1;
+                count += 1;
+            }
+        }
+        int skipped = all.length - count;
+        for (int k = 0; k < all.length; k += 1) {
+            all[k] -= Math.max(0, k + 1 - skipped);
+        }
+        setCursors(all, main);
+        return Arrays.copyOf(offsets, count);
+    }
+
+    // all cursors in ascending order, extra cursors at the main cursor position are skipped.
+    private long[] allCursors() {
+        int before = cursorsBefore(cursor);
+        int after = before < extraCount && extraCursors[before] == cursor ? before + 1 : before;
+        long[] all = new long[before + 1 + extraCount - after];
+        System.arraycopy(extraCursors, 0, all, 0, before);
+        all[before] = cursor;
+        System.arraycopy(extraCursors, after, all, before + 1, extraCount - after);
+        return all;
+    }
+
+    // take ascending cursor positions, the one at given index becomes the main cursor.
+    private void setCursors(long[] all, int main) {
+        cursor = all[main];
+        extraCount = 0;
+        if (extraCursors.length < all.length) {
+            extraCursors = new long[all.length];
+        }
+        for (int k = 0; k < all.length; k += 1) {
+            if (k != main) {
+                extraCursors[extraCount] = all[k];
+                extraCount += 1;
+            }
+        }
+        mergeCursors();
+    }
+
+    // number of extra cursors before given offset.
+    private int cursorsBefore(long offset) {
+        int lo = 0, hi = extraCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (extraCursors[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // keep main cursor, selection and extra cursors on the same characters after an edit not made at the cursor.
+    private void moveAllCursors(long offset, long inserted, long removed) {
+        cursor = shift(cursor, offset, inserted, removed);
+        dragStart = shift(dragStart, offset, inserted, removed);
+        dragEnd = shift(dragEnd, offset, inserted, removed);
+        shiftCursors(offset, inserted, removed);
+    }
+
+    // keep extra cursors on the same characters after a single edit.
+    private void shiftCursors(long offset, long inserted, long removed) {
+        for (int i = 0; i < extraCount; i += 1) {
+            extraCursors[i] = shift(extraCursors[i], offset, inserted, removed);
+        }
+        mergeCursors();
+    }
+
+    // drop extra cursors meeting another cursor, order is kept by every change.
+    private void mergeCursors() {
+        int count = 0;
+        for (int i = 0; i < extraCount; i += 1) {
+            long x = extraCursors[i];
+            if (x != cursor && (count == 0 || extraCursors[count - 1] != x)) {
+                extraCursors[count] = x;
+                count += 1;
+            }
+        }
+        extraCount = count;
     }
 
-    // put one pair of mapping in the hashtable and increment line number by one.
-    public void putLineNo_StartNode_mapping(Object node) {
-        lineNo_to_startNode.put(maxLine++, (Node) node);
+    // index of the first extra cursor sitting right after a character at or behind given offset.
+    public int extraCursorIndex(long offset) {
+        return cursorsBefore(offset + 1);
     }
 
-    // helper method to move current node at the level of lines.
-    // a helper node initially stores next line for case handling.
-    public void setCurToTargetNo(int no) {
-        currentPos = lineNo_to_startNode.get(no);
-        helper = lineNo_to_startNode.getOrDefault(no+1, null);
+    public int getExtraCursorCount() {
+        return extraCount;
     }
 
-    // return max line number(larger than real line number by one).
-    public int getMaxLine() { return maxLine; }
+    // position of extra cursor of given index, extra cursors are kept in ascending order.
+    public long getExtraCursor(int i) {
+        return extraCursors[i];
+    }
 
 
      // save file by calling write method supported by IOManager.Writer.
     public void savefile() throws IOException {
         System.out.println("Saving file to " + ioManager.getFilename() + "...");
-        save(ioManager.new Writer());
+        try (Snapshot snapshot = snapshot()) {
+            snapshot.save(ioManager);
+        }
         System.out.println("Finish saving file.");
     }
 
-    private void save(IOManager.Writer writer) throws IOException {
-        Node node = sentinel.next;
-        while (node != sentinel) {
-            writer.writeNextCharacter(node.text.getText().charAt(0));
-            node = node.next;
+
+    /**
+     *  group methods to merge external file changes detected by FileWatcher.
+     *  text read from the file keeps content unmodified if it was, other edits make it modified until it is saved.
+     */
+    // whether content has edits not written to the file.
+    public boolean isModified() {
+        return version != savedVersion;
+    }
+
+    // number of edits so far, taken together with a snapshot being saved.
+    public long getVersion() {
+        return version;
+    }
+
+    // content of given version was written to the file.
+    public void markSaved(long version) {
+        savedVersion = version;
+    }
+
+    // append text at the end of content, cursor follows if it was at the end.
+    public void appendTail(String s) {
+        appendTail(s, -1);
+    }
+
+    // append text decoded unchanged from the opened file starting at byte sourceStart (-1 if it was not),
+    // so saving copies its bytes.
+    public void appendTail(String s, long sourceStart) {
+        boolean clean = !isModified();
+        boolean follow = cursor == size;
+        long offset = size;
+        Source source = sourceStart < 0 ? null : ioManager.getSource();
+        long position = sourceStart;
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            long end = source == null ? position : position + source.encodedLength(c);
+            appendChar(c, source, position, end);
+            position = end;
+        }
+        tree.update(tail);
+        edited(offset, s.length(), 0);
+        if (clean) {
+            savedVersion = version;
+        }
+        if (follow) {
+            cursor = size;
+        }
+        shiftCursors(offset, s.length(), 0);
+        fireInserted(offset, s);
+    }
+
+    // remove content from given character offset to the end, cursor is kept in remaining content.
+    public void truncate(long offset) {
+        if (offset >= size) {
+            return;
+        }
+        boolean clean = !isModified();
+        fireRemoving(offset, size - offset);
+        int i = locate(offset);
+        Chunk chunk = writable(hint);
+        chunk.truncate(i);
+        tree.update(chunk);
+        for (Chunk dropped = chunk.next; dropped != null; dropped = dropped.next) {
+            tree.remove(dropped);
+            dropped.detach();
+        }
+        chunk.next = null;
+        tail = chunk;
+        long removed = size - offset;
+        size = offset;
+        if (chunk.length() == 0 && chunk.pre != null) {
+            unlink(chunk);
         }
-        writer.close();
+        hint = head;
+        hintStart = 0;
+        edited(offset, 0, removed);
+        if (clean) {
+            savedVersion = version;
+        }
+        cursor = Math.min(cursor, size);
+        shiftCursors(offset, 0, removed);
+        fireRemoved(offset, removed);
     }
 
 
     /**
-     *  group method to support undo and redo features.
+     *  group method to support incremental layout and highlighting:
+     *  edits are folded into one region, content before it keeps its offsets and content behind it is shifted
+     *  by the size change, so results of last pass can be matched with current content.
      */
-    // return current node.
-    public Node getCurrentPosNode() {
-        return currentPos;
+    // record that old characters [offset, offset + removed) were replaced by inserted characters.
+    private void edited(long offset, long inserted, long removed) {
+        version += 1;
+        if (dirty) {
+            dirtyStart = shift(dirtyStart, offset, inserted, removed);
+            dirtyEnd = shift(dirtyEnd, offset, inserted, removed);
+            dirtyStart = Math.min(dirtyStart, offset);
+            dirtyEnd = Math.max(dirtyEnd, offset + inserted);
+        } else {
+            dirty = true;
+            dirtyStart = offset;
+            dirtyEnd = offset + inserted;
+        }
     }
 
-    // set current node to given node.
-    public void setcurNodeToGivenPos(Object node) {
-        currentPos = (Node) node;
+    private long shift(long x, long offset, long inserted, long removed) {
+        if (x < offset) {
+            return x;
+        }
+        if (x >= offset + removed) {
+            return x + inserted - removed;
+        }
+        return offset;
+    }
+
+    // whether range [start, end] touches edited region.
+    public boolean isEdited(long start, long end) {
+        return dirty && start <= dirtyEnd && end >= dirtyStart;
+    }
+
+    // start of edited region, -1 if nothing was edited since last generation.
+    public long getEditedStart() {
+        return dirty ? dirtyStart : -1;
+    }
+
+    // end of edited region, valid while getEditedStart is not -1.
+    public long getEditedEnd() {
+        return dirtyEnd;
     }
 
-    // add node to right after current node.
-    public void addNode(Object node) {
-        Node n = (Node) node;
-        root.getChildren().add(n.text);
-        currentPos.next.pre = n;
-        currentPos.next = n;
-        currentPos = currentPos.next;
+    // offset given (current) offset had at last generation, offsets inside edited region map to its old end.
+    public long previousOffset(long offset) {
+        if (!dirty || offset < dirtyStart) {
+            return offset;
+        }
+        long delta = size - generationSize;
+        return Math.max(offset, dirtyEnd) - delta;
+    }
+
+    // start a new edit generation.
+    public void nextGeneration() {
+        dirty = false;
+        generationSize = size;
+    }
+
+    // collect characters of the logical line beginning at given offset, at most up to given limit offset
+    // (a segment of a long line), return offset of its end.
+    public long collectLine(long start, long limit, StringBuilder sb) {
+        long offset = start;
+        if (offset >= size) {
+            return offset;
+        }
+        int i = locate(offset);
+        Chunk chunk = hint;
+        while (chunk != null) {
+            int end = chunk.indexOf('\n', i);
+            int to = end == -1 ? chunk.length() : end;
+            to = (int) Math.min(to, i + limit - offset);
+            chunk.appendTo(sb, i, to);
+            offset += to - i;
+            if (end != -1 || offset == limit) {
+                break;
+            }
+            chunk = chunk.next;
+            i = 0;
+        }
+        return offset;
     }
 }
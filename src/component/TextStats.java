@@ -0,0 +1,33 @@
+package component;
+
+/**
+ *  TextStats: character, line and word counts of content or of a range of it.
+ *  lines is the number of lines the text spans (newlines + 1), a word is a maximal run of non-whitespace characters.
+ */
+public class TextStats {
+    private final long chars;
+    private final long lines;
+    private final long words;
+
+    public TextStats(long chars, long lines, long words) {
+        this.chars = chars;
+        this.lines = lines;
+        this.words = words;
+    }
+
+    public long getChars() {
+        return chars;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getWords() {
+        return words;
+    }
+
+    public String toString() {
+        return "Lines: " + lines + "  Words: " + words + "  Chars: " + chars;
+    }
+}
@@ -0,0 +1,289 @@
+package component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ *  WordIndex: words of content in sorted order with their number of occurrences, for completing the word being typed.
+ *    - a word is a run of letters, digits and '_' not starting with a digit, MIN_WORD to MAX_WORD characters long.
+ *    - built once on a background thread from a Snapshot; changes made meanwhile are counted as deltas on the
+ *      editing thread and folded in when the build is handed over, so content is never scanned again.
+ *    - kept current as an EditListener of TextBuffer: a change recounts only the runs touching it, longer runs
+ *      are never words, so at most MAX_WORD + 1 characters are read on each side of the change.
+ *    - words inside an insert or removal of more than LARGE characters are counted on a background thread and
+ *      folded in afterwards FOLD words at a time, so a paste of tens of MB does not hold up the editing thread.
+ *    - prefix lookup is one TreeMap search followed by a walk over the words sharing the prefix, O(log n + k).
+ *  all methods besides the build run on the editing thread.
+ */
+public class WordIndex implements TextBuffer.EditListener {
+    public static final int MIN_WORD = 2;
+    public static final int MAX_WORD = 64;
+    private static final int LARGE = 1 << 16;
+    private static final int FOLD = 1 << 14;
+
+    private TextBuffer textBuffer;
+    private Executor editThread;
+
+    // counts of words in content once built, while building the count changes since the snapshot (may be negative).
+    private TreeMap<String, Integer> counts;
+    private boolean ready;
+
+    // runs around a removal about to happen: [runStart, runEnd) before it.
+    private long runStart, runEnd;
+
+    public WordIndex(TextBuffer textBuffer, Executor editThread) {
+        this.textBuffer = textBuffer;
+        this.editThread = editThread;
+        this.counts = new TreeMap<>();
+    }
+
+    /**
+     *  group methods building the index.
+     */
+    // listen to changes from now on and count words of current content on a background thread.
+    public void start() {
+        Snapshot snapshot = textBuffer.snapshot();
+        textBuffer.addEditListener(this);
+        Thread builder = new Thread(() -> {
+            // counted by hash first, only distinct words are sorted.
+            HashMap<String, Integer> found = new HashMap<>();
+            Counter counter = new Counter(found, 1);
+            try {
+                Snapshot.Reader reader = snapshot.reader(0);
+                while (reader.hasNext()) {
+                    counter.accept(reader.next());
+                }
+                counter.flush();
+            } finally {
+                snapshot.close();
+            }
+            TreeMap<String, Integer> built = new TreeMap<>(found);
+            editThread.execute(() -> handOver(built));
+        });
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    public void stop() {
+        textBuffer.removeEditListener(this);
+    }
+
+    // whether content as a whole is indexed, before that only words typed meanwhile are found.
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void handOver(TreeMap<String, Integer> built) {
+        for (Map.Entry<String, Integer> delta : counts.entrySet()) {
+            add(built, delta.getKey(), delta.getValue());
+        }
+        counts = built;
+        ready = true;
+    }
+
+    // count words fed to counter on a background thread, then fold them into counts on the editing thread.
+    private void countLater(int delta, Consumer<Counter> feed) {
+        Thread worker = new Thread(() -> {
+            HashMap<String, Integer> found = new HashMap<>();
+            Counter counter = new Counter(found, delta);
+            feed.accept(counter);
+            counter.flush();
+            Iterator<Map.Entry<String, Integer>> deltas = found.entrySet().iterator();
+            editThread.execute(() -> fold(deltas));
+        });
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // fold at most FOLD counts at a time, so the editing thread keeps handling input in between.
+    private void fold(Iterator<Map.Entry<String, Integer>> deltas) {
+        for (int n = 0; n < FOLD && deltas.hasNext(); n += 1) {
+            Map.Entry<String, Integer> delta = deltas.next();
+            add(counts, delta.getKey(), delta.getValue());
+        }
+        if (deltas.hasNext()) {
+            editThread.execute(() -> fold(deltas));
+        }
+    }
+
+
+    /**
+     *  group methods answering lookups.
+     */
+    // at most limit words starting with prefix and longer than it, in alphabetical order.
+    public List<String> complete(String prefix, int limit) {
+        List<String> words = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.tailMap(prefix, false).entrySet()) {
+            if (words.size() == limit || !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (entry.getValue() > 0) {
+                words.add(entry.getKey());
+            }
+        }
+        return words;
+    }
+
+    // number of occurrences of word in content.
+    public int count(String word) {
+        return Math.max(0, counts.getOrDefault(word, 0));
+    }
+
+    // word characters right before offset, the prefix to complete ("" if there are none).
+    public String prefixBefore(long offset) {
+        long start = offset;
+        while (start > 0 && offset - start < MAX_WORD && isWordChar(textBuffer.charAt(start - 1))) {
+            start -= 1;
+        }
+        return textBuffer.getText(start, offset);
+    }
+
+
+    /**
+     *  group methods following changes of content.
+     */
+    @Override
+    public void inserted(long offset, String text) {
+        long end = offset + text.length();
+        long start = runStart(offset);
+        long stop = runEnd(end);
+        // before the insertion both parts of the run around offset were one run.
+        Counter counter = new Counter(counts, -1);
+        accept(counter, start, offset);
+        accept(counter, end, stop);
+        counter.flush();
+        // runs between the first and the last non-word character of a large text are counted later.
+        int first = text.length() > LARGE ? firstBreak(text) : 0;
+        int last = text.length() > LARGE ? lastBreak(text) : 0;
+        counter = new Counter(counts, 1);
+        accept(counter, start, offset);
+        if (first < last) {
+            countLater(1, later -> accept(later, text, first, last));
+            accept(counter, text, 0, first);
+            counter.flush();
+            accept(counter, text, last, text.length());
+        } else {
+            accept(counter, text, 0, text.length());
+        }
+        accept(counter, end, stop);
+        counter.flush();
+    }
+
+    @Override
+    public void removing(long offset, long length) {
+        runStart = runStart(offset);
+        runEnd = runEnd(offset + length);
+        if (length > LARGE) {
+            // removed characters are copied out while they can still be read and counted on a background thread.
+            String text = textBuffer.getText(runStart, runEnd);
+            countLater(-1, later -> accept(later, text, 0, text.length()));
+            return;
+        }
+        Counter counter = new Counter(counts, -1);
+        accept(counter, runStart, runEnd);
+        counter.flush();
+    }
+
+    @Override
+    public void removed(long offset, long length) {
+        Counter counter = new Counter(counts, 1);
+        accept(counter, runStart, runEnd - length);
+        counter.flush();
+    }
+
+    // start of the run ending at offset, at most MAX_WORD + 1 characters back.
+    private long runStart(long offset) {
+        long start = offset;
+        while (start > 0 && offset - start <= MAX_WORD && isWordChar(textBuffer.charAt(start - 1))) {
+            start -= 1;
+        }
+        return start;
+    }
+
+    // end of the run starting at offset, at most MAX_WORD + 1 characters on.
+    private long runEnd(long offset) {
+        long end = offset;
+        long size = textBuffer.getSize();
+        while (end < size && end - offset <= MAX_WORD && isWordChar(textBuffer.charAt(end))) {
+            end += 1;
+        }
+        return end;
+    }
+
+    private void accept(Counter counter, long start, long end) {
+        for (long i = start; i < end; i += 1) {
+            counter.accept(textBuffer.charAt(i));
+        }
+    }
+
+    private static void accept(Counter counter, String text, int start, int end) {
+        for (int i = start; i < end; i += 1) {
+            counter.accept(text.charAt(i));
+        }
+    }
+
+    // index of the first character of text that is not a word character, text length if there is none.
+    private static int firstBreak(String text) {
+        int i = 0;
+        while (i < text.length() && isWordChar(text.charAt(i))) {
+            i += 1;
+        }
+        return i;
+    }
+
+    // index of the last character of text that is not a word character, -1 if there is none.
+    private static int lastBreak(String text) {
+        int i = text.length() - 1;
+        while (i >= 0 && isWordChar(text.charAt(i))) {
+            i -= 1;
+        }
+        return i;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // add delta to count of word, dropping words counted zero times.
+    private static void add(Map<String, Integer> map, String word, int delta) {
+        map.merge(word, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+
+    /**
+     *  splits characters fed one by one into runs and adds delta to the count of every run that is a word.
+     *  a run is kept up to MAX_WORD + 1 characters, enough to tell it is too long.
+     */
+    private static class Counter {
+        private Map<String, Integer> map;
+        private int delta;
+        private StringBuilder run = new StringBuilder(MAX_WORD + 1);
+
+        private Counter(Map<String, Integer> map, int delta) {
+            this.map = map;
+            this.delta = delta;
+        }
+
+        private void accept(char c) {
+            if (!isWordChar(c)) {
+                flush();
+            } else if (run.length() <= MAX_WORD) {
+                run.append(c);
+            }
+        }
+
+        private void flush() {
+            int length = run.length();
+            if (length >= MIN_WORD && length <= MAX_WORD && !Character.isDigit(run.charAt(0))) {
+                add(map, run.toString(), delta);
+            }
+            run.setLength(0);
+        }
+    }
+}
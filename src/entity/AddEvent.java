@@ -4,13 +4,13 @@ package entity;
  *  Event interface implemented class to store information for adding operation.
  */
 public class AddEvent implements Event {
-    private Object element;
+    private long offset;
 
-    public Object getElement() {
-        return element;
+    public long getOffset() {
+        return offset;
     }
 
-    public void setElement(Object element) {
-        this.element = element;
+    public void setOffset(long offset) {
+        this.offset = offset;
     }
 }
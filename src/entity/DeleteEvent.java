@@ -4,22 +4,22 @@ package entity;
  *  Event interface implemented class to store information for deletion operation.
  */
 public class DeleteEvent implements Event {
-    Object element;
-    Object pre;
+    char element;
+    long offset;
 
-    public Object getElement() {
+    public char getElement() {
         return element;
     }
 
-    public void setElement(Object element) {
+    public void setElement(char element) {
         this.element = element;
     }
 
-    public Object getPre() {
-        return pre;
+    public long getOffset() {
+        return offset;
     }
 
-    public void setPre(Object pre) {
-        this.pre = pre;
+    public void setOffset(long offset) {
+        this.offset = offset;
     }
 }
@@ -0,0 +1,55 @@
+package entity;
+
+/**
+ *  edit exchanged with a collaboration peer, in the offset/length form of the other events:
+ *    - insertion of text at offset (text is not null).
+ *    - deletion of length characters starting at offset (text is null).
+ */
+public class EditOperation {
+    private long offset;
+    private long length;
+    private String text;
+
+    public static EditOperation insert(long offset, String text) {
+        EditOperation op = new EditOperation();
+        op.setOffset(offset);
+        op.setText(text);
+        op.setLength(text.length());
+        return op;
+    }
+
+    public static EditOperation delete(long offset, long length) {
+        EditOperation op = new EditOperation();
+        op.setOffset(offset);
+        op.setLength(length);
+        return op;
+    }
+
+    public boolean isInsert() {
+        return text != null;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,19 @@
+package entity;
+
+import java.util.List;
+
+/**
+ *  Event interface implemented class to store events performed together (e.g. typing with several cursors),
+ *  undone and redone as one record. events are kept in the order they were performed.
+ */
+public class GroupEvent implements Event {
+    private List<Event> events;
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<Event> events) {
+        this.events = events;
+    }
+}
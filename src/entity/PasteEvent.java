@@ -5,7 +5,7 @@ package entity;
  */
 public class PasteEvent implements Event {
     private Integer length;
-    private Object lastNode;
+    private long end;
 
     public Integer getLength() {
         return length;
@@ -15,11 +15,11 @@ public class PasteEvent implements Event {
         this.length = length;
     }
 
-    public Object getLastNode() {
-        return lastNode;
+    public long getEnd() {
+        return end;
     }
 
-    public void setLastNode(Object lastNode) {
-        this.lastNode = lastNode;
+    public void setEnd(long end) {
+        this.end = end;
     }
 }
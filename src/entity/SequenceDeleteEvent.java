@@ -1,27 +1,25 @@
 package entity;
 
-import java.util.Deque;
-
 /**
  *   Event interface implemented class to store information for pasting-counter operation.
  */
 public class SequenceDeleteEvent implements Event {
-    private Deque<Object> nodes;
-    private Object start;
+    private String text;
+    private long start;
 
-    public Deque<Object> getNodes() {
-        return nodes;
+    public String getText() {
+        return text;
     }
 
-    public void setNodes(Deque<Object> nodes) {
-        this.nodes = nodes;
+    public void setText(String text) {
+        this.text = text;
     }
 
-    public Object getStart() {
+    public long getStart() {
         return start;
     }
 
-    public void setStart(Object start) {
+    public void setStart(long start) {
         this.start = start;
     }
 }
@@ -2,6 +2,9 @@ module AMeditor {
     requires javafx.base;
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.management;
+
+    uses component.Codec;
 
     opens sample;
 }
\ No newline at end of file
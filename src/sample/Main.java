@@ -1,23 +1,46 @@
 package sample;
 
+import component.Collaborator;
+import component.Dictionary;
+import component.FileWatcher;
+import component.Highlighter;
 import component.HistoryManager;
 import component.IOManager;
+import component.InputTrace;
+import component.Loader;
+import component.Paster;
 import component.RenderEngine;
+import component.Snapshot;
+import component.SpellChecker;
 import component.TextBuffer;
+import component.WordIndex;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.geometry.Orientation;
 import javafx.scene.Group;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.*;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import tokenizer.PlainTokenizer;
+import tokenizer.Tokenizer;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import entity.*;
 
@@ -25,6 +48,8 @@ public class Main extends Application {
     private static final int INIT_WINDOW_HEIGHT = 500;
     private static final int INIT_WINDOW_WIDTH = 500;
     private static final int MARGIN = 5;
+    private static final int COMPLETIONS = 10;
+    private static final String SYSTEM_DICTIONARY = "/usr/share/dict/words";
 
     private static String filename;
 
@@ -32,7 +57,18 @@ public class Main extends Application {
     private IOManager ioManager;
     private RenderEngine renderEngine;
     private HistoryManager historyManager;
-
+    private Highlighter highlighter;
+    private FileWatcher fileWatcher;
+    private Loader loader;
+    private Collaborator collaborator;
+    private InputTrace.Recorder recorder;
+    private WordIndex wordIndex;
+    private Paster paster;
+    private SpellChecker spellChecker;
+    private final Object saveLock = new Object();
+    private boolean askingReload;
+
+    private Stage stage;
     private Group root;
     private Scene scene;
     private Group textGroup;
@@ -61,17 +97,156 @@ public class Main extends Application {
      *  Initialize functional components:
      *    - IOManager: managing file input and output.
      *    - TextBuffer: organizing linked list for text input and supporting series of operations on it.
-     *    - RenderEngine: rendering content to window.
+     *    - Highlighter: incremental syntax highlighting with tokenizer chosen by file extension.
+     *    - RenderEngine: rendering content to window, folding lines below cursor line with Ctrl+[ (Ctrl+] opens them).
      *    - HistoryManager: manage undo and redo operations.
+     *    - Loader: read the rest of the file in background once the first screen is read.
+     *    - FileWatcher: merge changes made to the file by other processes, asking first if content has unsaved edits.
+     *    - WordIndex: words of content for completion (Ctrl+Space), built once loading finishes.
+     *    - SpellChecker: underline misspelled words of prose files, once loading finishes and the word list is open.
+     *    - Collaborator: share content with another editor when -Dcollab=PORT or -Dcollab=HOST:PORT is given.
      */
     private void ComponentInit(String filename) throws IOException {
         ioManager = new IOManager(filename);
-        textBuffer = new TextBuffer(ioManager, textGroup);
+        IOManager.Reader reader = ioManager.new Reader();
+        textBuffer = new TextBuffer(ioManager, Boolean.getBoolean("offheap"), reader, Loader.HEAD);
+        highlighter = new Highlighter(textBuffer, Tokenizer.forFilename(filename));
 
         double span = INIT_WINDOW_WIDTH - MARGIN - scrollBar.getLayoutBounds().getWidth();
-        renderEngine = new RenderEngine(textBuffer, span, root, textGroup, scrollBar, scene.getHeight());
+        renderEngine = new RenderEngine(textBuffer, highlighter, span, root, textGroup, scrollBar, scene.getHeight());
 
         historyManager = new HistoryManager(textBuffer);
+
+        fileWatcher = new FileWatcher(ioManager, new FileWatcher.Listener() {
+            @Override
+            public void onAppend(String text) {
+                renderEngine.appendText(text);
+            }
+
+            @Override
+            public void onChange(long offset, String text) {
+                // offset is in the file on disk, it only matches content without unsaved edits.
+                if (textBuffer.isModified()) {
+                    askReload();
+                    return;
+                }
+                textBuffer.truncate(offset);
+                textBuffer.appendTail(text);
+                historyManager.clear();
+                renderEngine.update();
+            }
+
+            @Override
+            public void onReload(String text) {
+                textBuffer.truncate(0);
+                textBuffer.appendTail(text);
+                textBuffer.markSaved(textBuffer.getVersion());
+                historyManager.clear();
+                renderEngine.update();
+            }
+        });
+
+        loader = new Loader(reader, new Loader.Listener() {
+            @Override
+            public void onLoad(String text, long sourceStart) {
+                renderEngine.appendText(text, sourceStart);
+            }
+
+            @Override
+            public void onFinish() {
+                // changes by other processes and peers are merged against the fully loaded content.
+                // bytes of a compressed file cannot be compared block by block, it is not watched.
+                if (!ioManager.isCompressed()) {
+                    fileWatcher.start();
+                }
+                wordIndex = new WordIndex(textBuffer, Platform::runLater);
+                wordIndex.start();
+                startSpellCheck();
+                startCollaboration();
+                startReplay();
+            }
+        });
+        loader.start();
+    }
+
+    // the file changed on disk while content has unsaved edits: reload it only if the user agrees to drop them,
+    // otherwise content is kept and overwrites the file at next save.
+    private void askReload() {
+        if (askingReload) {
+            return;
+        }
+        askingReload = true;
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                filename + " was changed by another program. Reload it and discard unsaved changes?",
+                ButtonType.YES, ButtonType.NO);
+        alert.setHeaderText(null);
+        alert.showAndWait().filter(ButtonType.YES::equals).ifPresent(b -> fileWatcher.reload());
+        askingReload = false;
+    }
+
+    // share content with another editor when -Dcollab is given.
+    private void startCollaboration() {
+        String collab = System.getProperty("collab");
+        if (collab != null) {
+            collaborator = new Collaborator(textBuffer, Platform::runLater, new Collaborator.Listener() {
+                @Override
+                public void onStart() {
+                    renderEngine.update();
+                }
+
+                @Override
+                public void onRemoteEdit() {
+                    // recorded offsets no longer match content changed by peer.
+                    historyManager.clear();
+                    renderEngine.update();
+                }
+
+                @Override
+                public void onDisconnect(String reason) {
+                    System.out.println("Collaboration ended: " + reason);
+                }
+            });
+            collaborator.start(collab);
+        }
+    }
+
+    // check spelling of prose files (no syntax highlighting) against the word list given by -Ddict, else the system
+    // one. the word list is opened on a background thread, it may be normalized into a copy the first time.
+    private void startSpellCheck() {
+        if (!(Tokenizer.forFilename(filename) instanceof PlainTokenizer)) {
+            return;
+        }
+        String dict = System.getProperty("dict", SYSTEM_DICTIONARY);
+        if (!Files.exists(Paths.get(dict))) {
+            System.out.println("No word list at " + dict + ", spell checking is off.");
+            return;
+        }
+        Thread opener = new Thread(() -> {
+            try {
+                Dictionary dictionary = new Dictionary(dict);
+                Platform.runLater(() -> {
+                    spellChecker = new SpellChecker(textBuffer, dictionary, renderEngine::drawUnderlines);
+                    renderEngine.setSpellChecker(spellChecker);
+                });
+            } catch (IOException e) {
+                System.out.println("Failed to open the word list: " + e.getMessage());
+            }
+        });
+        opener.setDaemon(true);
+        opener.start();
+    }
+
+    // feed the input trace given by -Dreplay through the window once content is loaded, then close it.
+    private void startReplay() {
+        String replay = System.getProperty("replay");
+        if (replay != null) {
+            try {
+                new InputTrace.Replayer(replay, stage, scrollBar, Boolean.getBoolean("replay.realtime"),
+                        Platform::exit).start();
+            } catch (IOException e) {
+                System.out.println("Failed to open the input trace: " + e.getMessage());
+            }
+        }
     }
 
 
@@ -80,16 +255,28 @@ public class Main extends Application {
      */
     @Override
     public void start(Stage primaryStage) throws Exception {
+        stage = primaryStage;
         ElementInit();
         ComponentInit(filename);
 
         EventsBinding();
+        String record = System.getProperty("record");
+        if (record != null) {
+            recorder = new InputTrace.Recorder(record, scene, scrollBar);
+        }
 
         primaryStage.setScene(scene);
         primaryStage.setTitle("AMeditor");
         primaryStage.show();
     }
 
+    @Override
+    public void stop() throws Exception {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
     /**
      *   define required events:
      *     - key events
@@ -109,11 +296,16 @@ public class Main extends Application {
                         if (keyChar == '\r') {
                             keyChar = '\n';
                         }
-                        textBuffer.add(new Text(String.valueOf(keyChar)));
+                        if (textBuffer.getCursorCount() > 1) {
+                            addAtCursors(keyChar);
+                            keyEvent.consume();
+                            return;
+                        }
+                        textBuffer.add(keyChar);
                         renderEngine.update();
 
                         AddEvent e = new AddEvent();
-                        e.setElement(textBuffer.getCurrentPosNode());
+                        e.setOffset(textBuffer.getCursor() - 1);
                         historyManager.put(e);
                     }
                 }
@@ -125,19 +317,32 @@ public class Main extends Application {
         scene.setOnKeyPressed(new EventHandler<KeyEvent>() {
             @Override
             public void handle(KeyEvent keyEvent) {
-                if (!keyEvent.isShortcutDown()) {
-                    if (keyEvent.getCode() == KeyCode.BACK_SPACE) {
+                if (keyEvent.isAltDown() && keyEvent.getCode() == KeyCode.UP) {
+                    renderEngine.addCursorAbove();
+                    renderEngine.update();
+                } else if (keyEvent.isAltDown() && keyEvent.getCode() == KeyCode.DOWN) {
+                    renderEngine.addCursorBelow();
+                    renderEngine.update();
+                } else if (!keyEvent.isShortcutDown()) {
+                    if (keyEvent.getCode() == KeyCode.BACK_SPACE && textBuffer.getCursorCount() > 1) {
+                        deleteAtCursors();
+                    } else if (keyEvent.getCode() == KeyCode.ESCAPE) {
+                        textBuffer.clearCursors();
+                        if (paster != null) {
+                            paster.cancel();
+                        }
+                    } else if (keyEvent.getCode() == KeyCode.BACK_SPACE) {
                         DeleteEvent e = new DeleteEvent();
-                        Object[] nodeinfo = textBuffer.delete();
-                        if (nodeinfo.length != 0) {
-                            e.setElement(nodeinfo[0]);
-                            e.setPre(nodeinfo[1]);
+                        int deleted = textBuffer.delete();
+                        if (deleted != -1) {
+                            e.setElement((char) deleted);
+                            e.setOffset(textBuffer.getCursor());
                             historyManager.put(e);
                         }
                     } else if (keyEvent.getCode() == KeyCode.LEFT) {
-                        textBuffer.decreCurrent(true);
+                        textBuffer.moveCursors(-1);
                     } else if (keyEvent.getCode() == KeyCode.RIGHT) {
-                        textBuffer.increCurrent(true);
+                        textBuffer.moveCursors(1);
                     } else if (keyEvent.getCode() == KeyCode.UP) {
                         renderEngine.jumpToPreLine();
                     } else if (keyEvent.getCode() == KeyCode.DOWN) {
@@ -146,24 +351,25 @@ public class Main extends Application {
                     renderEngine.update();
                 } else {
                     if (keyEvent.getCode() == KeyCode.S) {
-                        try {
-                            textBuffer.savefile();
-                        } catch (IOException e) {
-                            System.out.println("Failed to save the file.");
-                        }
+                        saveInBackground();
                     } else if (keyEvent.getCode() == KeyCode.PLUS || keyEvent.getCode() == KeyCode.EQUALS) {
-                        renderEngine.setFontSize(renderEngine.getFontSize() + 5);
+                        renderEngine.zoomIn();
                     } else if (keyEvent.getCode() == KeyCode.MINUS) {
-                        renderEngine.setFontSize(Math.max(10, renderEngine.getFontSize() - 5));
+                        renderEngine.zoomOut();
                     } else if (keyEvent.getCode() == KeyCode.C) {
                         renderEngine.doCopy();
                     } else if (keyEvent.getCode() == KeyCode.V) {
-                        Object[] eventInfo = renderEngine.doPaste();
-                        if (eventInfo.length != 0) {
-                            PasteEvent e = new PasteEvent();
-                            e.setLength((Integer) eventInfo[0]);
-                            e.setLastNode(eventInfo[1]);
-                            historyManager.put(e);
+                        String content = Clipboard.getSystemClipboard().getString();
+                        if (content != null && content.length() >= Paster.THRESHOLD) {
+                            pasteInBackground(content);
+                        } else {
+                            Object[] eventInfo = renderEngine.doPaste(content);
+                            if (eventInfo.length != 0) {
+                                PasteEvent e = new PasteEvent();
+                                e.setLength((Integer) eventInfo[0]);
+                                e.setEnd((Long) eventInfo[1]);
+                                historyManager.put(e);
+                            }
                         }
                     } else if (keyEvent.getCode() == KeyCode.Z) {
                         historyManager.undo();
@@ -171,6 +377,16 @@ public class Main extends Application {
                     } else if (keyEvent.getCode() == KeyCode.Y) {
                         historyManager.redo();
                         renderEngine.update();
+                    } else if (keyEvent.getCode() == KeyCode.G) {
+                        askGoToLine();
+                    } else if (keyEvent.getCode() == KeyCode.B) {
+                        jumpToMatchingBracket();
+                    } else if (keyEvent.getCode() == KeyCode.SPACE) {
+                        showCompletions();
+                    } else if (keyEvent.getCode() == KeyCode.OPEN_BRACKET) {
+                        renderEngine.fold();
+                    } else if (keyEvent.getCode() == KeyCode.CLOSE_BRACKET) {
+                        renderEngine.unfold();
                     }
                 }
 
@@ -184,7 +400,12 @@ public class Main extends Application {
 
                 double x_click_pos = mouseEvent.getX();
                 double y_click_pos = mouseEvent.getY();
-                renderEngine.jumpToXY(x_click_pos, y_click_pos);
+                if (mouseEvent.isAltDown()) {
+                    renderEngine.addCursorAt(x_click_pos, y_click_pos);
+                } else {
+                    textBuffer.clearCursors();
+                    renderEngine.jumpToXY(x_click_pos, y_click_pos);
+                }
 
                 renderEngine.update();
                 mouseEvent.consume();
@@ -214,15 +435,19 @@ public class Main extends Application {
         scrollBar.valueProperty().addListener(new ChangeListener<Number>() {
             @Override
             public void changed(ObservableValue<? extends Number> observableValue, Number number, Number t1) {
-                // round to int value
-                int val = t1.intValue();
-                renderEngine.setRootYPos(-val);
+                // scroll bar value counts lines, round to the line shown at window top.
+                renderEngine.scrollTo(t1.intValue());
             }
         });
 
         scene.setOnMousePressed(new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent mouseEvent) {
+                if (mouseEvent.isAltDown()) {
+                    // alt-click adds a cursor, main cursor stays where it is.
+                    mouseEvent.consume();
+                    return;
+                }
                 double x_click_pos = mouseEvent.getX();
                 double y_click_pos = mouseEvent.getY();
 
@@ -235,6 +460,10 @@ public class Main extends Application {
         scene.setOnMouseDragged(new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent mouseEvent) {
+                if (mouseEvent.isAltDown()) {
+                    mouseEvent.consume();
+                    return;
+                }
                 double x_click_pos = mouseEvent.getX();
                 double y_click_pos = mouseEvent.getY();
 
@@ -247,10 +476,200 @@ public class Main extends Application {
 
     }
 
+    /**
+     *  group methods editing at every cursor: one batch in content, one rendering pass and one history record.
+     */
+    private void addAtCursors(char c) {
+        long[] offsets = textBuffer.addAtCursors(c);
+        renderEngine.update();
+
+        List<Event> events = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            AddEvent e = new AddEvent();
+            e.setOffset(offset);
+            events.add(e);
+        }
+        GroupEvent group = new GroupEvent();
+        group.setEvents(events);
+        historyManager.put(group);
+    }
+
+    private void deleteAtCursors() {
+        StringBuilder deleted = new StringBuilder();
+        long[] offsets = textBuffer.deleteAtCursors(deleted);
+        if (offsets.length == 0) {
+            return;
+        }
+        List<Event> events = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i += 1) {
+            DeleteEvent e = new DeleteEvent();
+            e.setElement(deleted.charAt(i));
+            e.setOffset(offsets[i]);
+            events.add(e);
+        }
+        GroupEvent group = new GroupEvent();
+        group.setEvents(events);
+        historyManager.put(group);
+    }
+
+
+    /**
+     *  ask for a line number and show that line, content is not traversed.
+     */
+    private void askGoToLine() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Go to Line");
+        dialog.setHeaderText(null);
+        dialog.setContentText("Line number:");
+        dialog.showAndWait().ifPresent(input -> {
+            try {
+                renderEngine.goToLine(Integer.parseInt(input.trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid line number: " + input);
+            }
+        });
+    }
+
+
+    /**
+     *  jump between a bracket and its match, located through the bracket index of TextBuffer.
+     */
+    // move cursor to the bracket matching the one before it (else the one after it), on the same side of it.
+    private void jumpToMatchingBracket() {
+        long cursor = textBuffer.getCursor();
+        long match = textBuffer.matchingBracket(cursor - 1);
+        if (match != -1) {
+            textBuffer.setCursor(match + 1);
+        } else if ((match = textBuffer.matchingBracket(cursor)) != -1) {
+            textBuffer.setCursor(match);
+        }
+        renderEngine.update();
+    }
+
+
+    /**
+     *  paste a long text prepared on a background thread, a progress bar is shown meanwhile and Esc cancels it.
+     *  the window keeps accepting input, the text goes where cursor was when it was pasted.
+     */
+    private void pasteInBackground(String content) {
+        if (paster != null) {
+            System.out.println("A paste is still being prepared.");
+            return;
+        }
+        ProgressBar progress = new ProgressBar(0);
+        progress.setLayoutX(MARGIN);
+        progress.setLayoutY(scene.getHeight() - MARGIN - progress.prefHeight(-1));
+        root.getChildren().add(progress);
+        paster = new Paster(textBuffer, content, textBuffer.getCursor(), new Paster.Listener() {
+            @Override
+            public void onProgress(double fraction) {
+                progress.setProgress(fraction);
+            }
+
+            @Override
+            public void onFinish(long offset, int length) {
+                root.getChildren().remove(progress);
+                paster = null;
+                PasteEvent e = new PasteEvent();
+                e.setLength(length);
+                e.setEnd(offset + length);
+                historyManager.put(e);
+                renderEngine.update();
+            }
+
+            @Override
+            public void onCancel() {
+                root.getChildren().remove(progress);
+                paster = null;
+                System.out.println("Paste cancelled.");
+            }
+        });
+        paster.start();
+    }
+
+
+    /**
+     *  offer words of content starting with the word before cursor, the chosen one is completed in place.
+     */
+    private void showCompletions() {
+        if (wordIndex == null) {
+            System.out.println("File is still loading, words are indexed once loading finishes.");
+            return;
+        }
+        long offset = textBuffer.getCursor();
+        String prefix = wordIndex.prefixBefore(offset);
+        List<String> words = prefix.isEmpty() ? List.of() : wordIndex.complete(prefix, COMPLETIONS);
+        if (words.isEmpty()) {
+            return;
+        }
+        ContextMenu menu = new ContextMenu();
+        for (String word : words) {
+            MenuItem item = new MenuItem(word);
+            item.setMnemonicParsing(false);
+            item.setOnAction(e -> complete(offset, word.substring(prefix.length())));
+            menu.getItems().add(item);
+        }
+        Bounds bounds = renderEngine.getCursorBounds();
+        menu.show(root, bounds.getMinX(), bounds.getMaxY());
+    }
+
+    // insert rest of a chosen word, undone as one paste.
+    private void complete(long offset, String rest) {
+        if (textBuffer.getCursor() != offset) {
+            return;
+        }
+        textBuffer.insert(offset, rest);
+        PasteEvent e = new PasteEvent();
+        e.setLength(rest.length());
+        e.setEnd(offset + rest.length());
+        historyManager.put(e);
+        renderEngine.update();
+    }
+
+
+    /**
+     *  write a snapshot of current content on a background thread, so editing goes on while the file is written.
+     *  saves are serialized, each one writes the content as it was when its key was pressed.
+     */
+    private void saveInBackground() {
+        if (loader.isLoading()) {
+            System.out.println("File is still loading, save it once loading finishes.");
+            return;
+        }
+        fileWatcher.suspend();
+        long version = textBuffer.getVersion();
+        Snapshot snapshot = textBuffer.snapshot();
+        Thread saver = new Thread(() -> {
+            synchronized (saveLock) {
+                // bytes the save left as they were keep their block index in FileWatcher.
+                long unchanged = 0;
+                try {
+                    System.out.println("Saving file to " + ioManager.getFilename() + "...");
+                    unchanged = snapshot.save(ioManager);
+                    Platform.runLater(() -> textBuffer.markSaved(version));
+                    System.out.println("Finish saving file.");
+                } catch (IOException e) {
+                    System.out.println("Failed to save the file.");
+                } finally {
+                    snapshot.close();
+                    fileWatcher.resume(unchanged);
+                }
+            }
+        }, "Saver");
+        saver.start();
+    }
+
     /**
      *  Application entrance for simple text editor.
      *  Functionality specification and several design rules strictly follow the document from CS61B 2016 Spring Project 2 (Ref: http://datastructur.es/sp16/materials/proj/proj2/proj2.html#change-log)
      *  Usage from Terminal: java AMeditor filename.
+     *  with -Doffheap=true content is kept off the Java heap (raise -XX:MaxDirectMemorySize for huge files).
+     *  with -Dcollab=PORT the editor waits for a peer to share content with, -Dcollab=HOST:PORT connects to one
+     *  (or to cli.CollabRelay).
+     *  with -Drecord=TRACE input events are recorded to TRACE, with -Dreplay=TRACE they are fed back once the file is
+     *  loaded (as fast as possible, or at recorded pace with -Dreplay.realtime=true), latency percentiles are printed
+     *  and the window closes. replay a copy of the recorded file: saves in the trace are replayed too. without a
+     *  display, replay under Xvfb or with -Dglass.platform=Monocle -Dmonocle.platform=Headless.
      */
     public static void main(String[] args) {
         if (args.length != 1) {
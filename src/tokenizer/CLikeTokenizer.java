@@ -0,0 +1,179 @@
+package tokenizer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ *  Tokenizer for C-like languages (Java, C, JavaScript...):
+ *    - line comment, block comment (may span lines).
+ *    - string and character literals, numbers, keywords.
+ *  the only state carried between lines is whether we are inside a block comment. between segments of a long line
+ *  the token cut by the boundary is carried as well: a comment, string or character literal (with a pending
+ *  escape), word or number goes on, and a '/' ending a segment may open a comment with the next character (the
+ *  '/' itself keeps plain style, its segment is lexed already).
+ */
+public class CLikeTokenizer implements Tokenizer {
+    private static final int NORMAL = 0;
+    private static final int IN_BLOCK_COMMENT = 1;
+    // states only carried from a segment to the next one.
+    private static final int IN_LINE_COMMENT = 2;
+    private static final int IN_STRING = 3;
+    private static final int IN_CHAR = 4;
+    private static final int IN_WORD = 5;
+    private static final int IN_NUMBER = 6;
+    private static final int AFTER_SLASH = 7;
+    // flag of IN_BLOCK_COMMENT: segment ended with '*'. flag of IN_STRING and IN_CHAR: it ended with '\'.
+    private static final int PENDING = 8;
+    private static final int MODE = PENDING - 1;
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "false", "final", "finally", "float", "for",
+            "function", "if", "implements", "import", "instanceof", "int", "interface", "let", "long", "new",
+            "null", "package", "private", "protected", "public", "return", "short", "static", "struct", "super",
+            "switch", "this", "throw", "throws", "true", "try", "var", "void", "volatile", "while"));
+
+    @Override
+    public int initialState() {
+        return NORMAL;
+    }
+
+    @Override
+    public int tokenize(CharSequence line, int state, TokenSink sink) {
+        state = lex(line, state, sink, false);
+        // at line end only a block comment goes on.
+        return (state & MODE) == IN_BLOCK_COMMENT ? IN_BLOCK_COMMENT : NORMAL;
+    }
+
+    @Override
+    public int tokenizePart(CharSequence part, int state, TokenSink sink) {
+        return lex(part, state, sink, true);
+    }
+
+    // lex characters of line from given state, return state at their end. continued: the line goes on after them,
+    // so a word reaching the end is not known whole.
+    private int lex(CharSequence line, int state, TokenSink sink, boolean continued) {
+        int len = line.length();
+        int i = 0;
+        while (i < len) {
+            int start = i;
+            int mode = state & MODE;
+            if (mode == IN_BLOCK_COMMENT) {
+                int end = (state & PENDING) != 0 && line.charAt(i) == '/' ? i + 1 : commentEnd(line, i);
+                if (end == -1) {
+                    i = len;
+                    state = line.charAt(len - 1) == '*' ? IN_BLOCK_COMMENT | PENDING : IN_BLOCK_COMMENT;
+                } else {
+                    i = end;
+                    state = NORMAL;
+                }
+                emit(sink, start, i, TokenType.COMMENT);
+                continue;
+            } else if (mode == IN_LINE_COMMENT) {
+                i = len;
+                emit(sink, start, i, TokenType.COMMENT);
+                continue;
+            } else if (mode == IN_STRING || mode == IN_CHAR) {
+                char quote = mode == IN_STRING ? '"' : '\'';
+                if ((state & PENDING) != 0) {
+                    i += 1;
+                }
+                while (i < len && line.charAt(i) != quote) {
+                    i += line.charAt(i) == '\\' ? 2 : 1;
+                }
+                if (i < len) {
+                    i += 1;
+                    state = NORMAL;
+                } else {
+                    state = i > len ? mode | PENDING : mode;
+                    i = len;
+                }
+                emit(sink, start, i, TokenType.STRING);
+                continue;
+            } else if (mode == IN_WORD || mode == IN_NUMBER) {
+                while (i < len && (mode == IN_WORD ? Character.isJavaIdentifierPart(line.charAt(i))
+                        : isNumberPart(line.charAt(i)))) {
+                    i += 1;
+                }
+                if (i < len) {
+                    state = NORMAL;
+                }
+                emit(sink, start, i, mode == IN_WORD ? TokenType.PLAIN : TokenType.NUMBER);
+                continue;
+            } else if (mode == AFTER_SLASH) {
+                state = NORMAL;
+                if (line.charAt(i) == '/') {
+                    state = IN_LINE_COMMENT;
+                    continue;
+                } else if (line.charAt(i) == '*') {
+                    state = IN_BLOCK_COMMENT;
+                    i += 1;
+                    emit(sink, start, i, TokenType.COMMENT);
+                    continue;
+                }
+            }
+
+            char c = line.charAt(i);
+            if (c == '/' && i + 1 < len && line.charAt(i + 1) == '/') {
+                state = IN_LINE_COMMENT;
+            } else if (c == '/' && i + 1 < len && line.charAt(i + 1) == '*') {
+                // lexed on as block comment from the character after the opening "/*".
+                state = IN_BLOCK_COMMENT;
+                i += 2;
+                emit(sink, start, i, TokenType.COMMENT);
+            } else if (c == '"' || c == '\'') {
+                state = c == '"' ? IN_STRING : IN_CHAR;
+                i += 1;
+                emit(sink, start, i, TokenType.STRING);
+            } else if (Character.isDigit(c)) {
+                while (i < len && isNumberPart(line.charAt(i))) {
+                    i += 1;
+                }
+                if (i == len) {
+                    state = IN_NUMBER;
+                }
+                emit(sink, start, i, TokenType.NUMBER);
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (i < len && Character.isJavaIdentifierPart(line.charAt(i))) {
+                    i += 1;
+                }
+                boolean cut = continued && i == len;
+                if (cut) {
+                    state = IN_WORD;
+                }
+                if (sink != null) {
+                    boolean keyword = !cut && KEYWORDS.contains(line.subSequence(start, i).toString());
+                    sink.token(start, i, keyword ? TokenType.KEYWORD : TokenType.PLAIN);
+                }
+            } else {
+                if (c == '/' && i + 1 == len) {
+                    state = AFTER_SLASH;
+                }
+                i += 1;
+                emit(sink, start, i, TokenType.PLAIN);
+            }
+        }
+        return state;
+    }
+
+    // index right after the "*/" closing a block comment, -1 if comment continues to next line.
+    private int commentEnd(CharSequence line, int from) {
+        for (int i = from; i + 1 < line.length(); i += 1) {
+            if (line.charAt(i) == '*' && line.charAt(i + 1) == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNumberPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '.';
+    }
+
+    private void emit(TokenSink sink, int start, int end, TokenType type) {
+        if (sink != null && end > start) {
+            sink.token(start, end, type);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package tokenizer;
+
+/**
+ *  Tokenizer for plain text: no state and no styled tokens.
+ */
+public class PlainTokenizer implements Tokenizer {
+    @Override
+    public int initialState() {
+        return 0;
+    }
+
+    @Override
+    public int tokenize(CharSequence line, int state, TokenSink sink) {
+        if (sink != null && line.length() != 0) {
+            sink.token(0, line.length(), TokenType.PLAIN);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,12 @@
+package tokenizer;
+
+/**
+ *  token categories reported by Tokenizer implementations, each one rendered with its own color.
+ */
+public enum TokenType {
+    PLAIN,
+    KEYWORD,
+    STRING,
+    NUMBER,
+    COMMENT
+}
@@ -0,0 +1,42 @@
+package tokenizer;
+
+/**
+ *  Tokenizer: pluggable lexer used by Highlighter.
+ *    - works on one logical line (without trailing '\n') at a time.
+ *    - lexer state at line start is represented by an int and cached per line by Highlighter,
+ *      so a tokenizer must be able to resume from any state returned earlier.
+ *    - a very long line is lexed in segments (see Highlighter), every segment but the last one by tokenizePart,
+ *      whose state may describe a token cut at the segment end (e.g. inside a string) for the next one to resume.
+ */
+public interface Tokenizer {
+
+    /**
+     *  receiver of tokens produced while lexing one line.
+     */
+    interface TokenSink {
+        // token covering characters [start, end) of the line.
+        void token(int start, int end, TokenType type);
+    }
+
+    // state at the beginning of the document.
+    int initialState();
+
+    // lex one line starting in given state, report tokens to sink (may be null) and return state at line end.
+    int tokenize(CharSequence line, int state, TokenSink sink);
+
+    // lex a segment of a line going on in the next segment, return state the next segment starts in.
+    // a tokenizer keeping no state across tokens lexes it as a whole line.
+    default int tokenizePart(CharSequence part, int state, TokenSink sink) {
+        return tokenize(part, state, sink);
+    }
+
+    // select tokenizer according to file extension.
+    static Tokenizer forFilename(String filename) {
+        String name = filename.toLowerCase();
+        if (name.endsWith(".java") || name.endsWith(".c") || name.endsWith(".h") || name.endsWith(".cpp")
+                || name.endsWith(".js") || name.endsWith(".json") || name.endsWith(".go") || name.endsWith(".rs")) {
+            return new CLikeTokenizer();
+        }
+        return new PlainTokenizer();
+    }
+}